@@ -0,0 +1,231 @@
+package com.alexecollins.docker.orchestration;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.InternalServerErrorException;
+import com.github.dockerjava.api.command.BuildImageCmd;
+import com.github.dockerjava.api.command.PushImageCmd;
+import com.github.dockerjava.api.model.EventStreamItem;
+import com.github.dockerjava.api.model.PushEventStreamItem;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link DockerClient} decorator that limits how many commands are sent to the daemon at once, adapting the limit
+ * AIMD-style: it creeps up while commands succeed, and halves when the daemon reports an internal error, times out,
+ * or (for light commands) is slow.
+ * <p/>
+ * Heavy commands (building, pushing and pulling images) and light commands (everything else) have separate limits.
+ * A heavy command holds its permit until its response stream is read to the end or closed. Commands that follow a
+ * container (logs, attach, wait and events) are not limited.
+ */
+public final class AdaptiveLimitingDockerClient extends DockerClientDecorator {
+
+    private static final Set<String> HEAVY = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "buildImageCmd", "pushImageCmd", "pullImageCmd", "createImageCmd", "saveImageCmd", "commitCmd")));
+    private static final Set<String> UNLIMITED = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "logContainerCmd", "attachContainerCmd", "waitContainerCmd", "eventsCmd")));
+    private static final long LIGHT_LATENCY_THRESHOLD_MILLIS = 2000;
+
+    private final AimdLimit heavy;
+    private final AimdLimit light;
+
+    /**
+     * @param maxHeavy The most heavy commands to run at once.
+     * @param maxLight The most light commands to run at once.
+     */
+    public AdaptiveLimitingDockerClient(DockerClient delegate, int maxHeavy, int maxLight) {
+        super(delegate);
+        heavy = new AimdLimit("heavy", maxHeavy, Long.MAX_VALUE);
+        light = new AimdLimit("light", maxLight, LIGHT_LATENCY_THRESHOLD_MILLIS);
+    }
+
+    private static boolean isOverloaded(Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InternalServerErrorException || cause instanceof SocketTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected Object exec(String command, String key, Callable<Object> exec) throws Exception {
+        if (UNLIMITED.contains(command)) {
+            return exec.call();
+        }
+        final AimdLimit limit = HEAVY.contains(command) ? heavy : light;
+        limit.acquire();
+        final long start = System.currentTimeMillis();
+        final Object result;
+        try {
+            result = exec.call();
+        } catch (Exception e) {
+            limit.release(System.currentTimeMillis() - start, isOverloaded(e));
+            throw e;
+        }
+        final Permit permit = new Permit(limit, start);
+        if (result instanceof BuildImageCmd.Response) {
+            return buildResponse((BuildImageCmd.Response) result, permit);
+        }
+        if (result instanceof PushImageCmd.Response) {
+            return pushResponse((PushImageCmd.Response) result, permit);
+        }
+        if (result instanceof InputStream && limit == heavy) {
+            return new PermitInputStream((InputStream) result, permit);
+        }
+        permit.release(false);
+        return result;
+    }
+
+    private BuildImageCmd.Response buildResponse(final BuildImageCmd.Response response, Permit permit) {
+        final PermitInputStream in = new PermitInputStream(response, permit);
+        return new BuildImageCmd.Response() {
+            @Override
+            public Iterable<EventStreamItem> getItems() throws IOException {
+                try {
+                    return response.getItems();
+                } finally {
+                    in.close();
+                }
+            }
+
+            @Override
+            public int read() throws IOException {
+                return in.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return in.read(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        };
+    }
+
+    private PushImageCmd.Response pushResponse(final PushImageCmd.Response response, Permit permit) {
+        final PermitInputStream in = new PermitInputStream(response, permit);
+        return new PushImageCmd.Response() {
+            @Override
+            public Iterable<PushEventStreamItem> getItems() throws IOException {
+                try {
+                    return response.getItems();
+                } finally {
+                    in.close();
+                }
+            }
+
+            @Override
+            public int read() throws IOException {
+                return in.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return in.read(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        };
+    }
+
+    /**
+     * @return The number of heavy commands currently allowed at once.
+     */
+    public int getHeavyLimit() {
+        return heavy.getLimit();
+    }
+
+    /**
+     * @return The number of light commands currently allowed at once.
+     */
+    public int getLightLimit() {
+        return light.getLimit();
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveLimitingDockerClient{" + heavy + ", " + light + '}';
+    }
+
+    private static final class Permit {
+        private final AimdLimit limit;
+        private final long start;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(AimdLimit limit, long start) {
+            this.limit = limit;
+            this.start = start;
+        }
+
+        private void release(boolean overloaded) {
+            if (released.compareAndSet(false, true)) {
+                limit.release(System.currentTimeMillis() - start, overloaded);
+            }
+        }
+    }
+
+    /**
+     * Releases the permit at the end of the stream, or when it is closed.
+     */
+    private static final class PermitInputStream extends FilterInputStream {
+        private final Permit permit;
+
+        private PermitInputStream(InputStream in, Permit permit) {
+            super(in);
+            this.permit = permit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                final int b = super.read();
+                if (b < 0) {
+                    permit.release(false);
+                }
+                return b;
+            } catch (IOException e) {
+                permit.release(isOverloaded(e));
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                final int n = super.read(b, off, len);
+                if (n < 0) {
+                    permit.release(false);
+                }
+                return n;
+            } catch (IOException e) {
+                permit.release(isOverloaded(e));
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                permit.release(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.alexecollins.docker.orchestration;
+
+/**
+ * A concurrency limit that grows additively while calls succeed quickly, and halves when a call fails because the
+ * daemon is overloaded or is slower than a threshold.
+ */
+final class AimdLimit {
+
+    private final String name;
+    private final int max;
+    private final long latencyThresholdMillis;
+    private double limit;
+    private int inFlight;
+    private long lastDecrease;
+
+    /**
+     * @param latencyThresholdMillis Calls slower than this reduce the limit, {@link Long#MAX_VALUE} to ignore latency.
+     */
+    AimdLimit(String name, int max, long latencyThresholdMillis) {
+        if (max < 1) {
+            throw new IllegalArgumentException("max must be at least 1");
+        }
+        this.name = name;
+        this.max = max;
+        this.latencyThresholdMillis = latencyThresholdMillis;
+        this.limit = (max + 1) / 2;
+    }
+
+    synchronized void acquire() throws InterruptedException {
+        while (inFlight >= (int) limit) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    synchronized void release(long latencyMillis, boolean overloaded) {
+        inFlight--;
+        final long now = System.currentTimeMillis();
+        if (overloaded || latencyMillis > latencyThresholdMillis) {
+            // calls in flight when the daemon got busy also report it, only back off once for them
+            if (now - lastDecrease > Math.min(latencyMillis, latencyThresholdMillis)) {
+                limit = Math.max(1, limit / 2);
+                lastDecrease = now;
+            }
+        } else {
+            limit = Math.min(max, limit + 1 / limit);
+        }
+        notifyAll();
+    }
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return name + "{limit=" + (int) limit + ", inFlight=" + inFlight + '}';
+    }
+}
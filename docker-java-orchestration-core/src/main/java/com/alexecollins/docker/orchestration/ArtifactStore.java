@@ -0,0 +1,120 @@
+package com.alexecollins.docker.orchestration;
+
+import com.google.common.hash.Hashing;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds one copy of each artifact added to a build context, named by its content, and hard links it into each context
+ * that adds it. Where a hard link cannot be made (e.g. the store and the context are on different file systems) the
+ * artifact is copied instead.
+ * <p/>
+ * The number of links to a stored artifact is its reference count, so when the contexts that use it are deleted or
+ * re-prepared, {@link #clean()} removes it.
+ */
+final class ArtifactStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArtifactStore.class);
+
+    private final File dir;
+    /**
+     * The hash of each file, keyed by its path, length and time last modified, so unchanged artifacts are read once.
+     */
+    private final ConcurrentMap<String, String> hashes = new ConcurrentHashMap<>();
+
+    ArtifactStore(File dir) {
+        if (dir == null) {
+            throw new IllegalArgumentException("dir is null");
+        }
+        this.dir = dir;
+    }
+
+    /**
+     * Links the file, or the files under the folder, into the destination. Existing files are replaced.
+     *
+     * @param filter Which files under a folder to add.
+     */
+    void materialise(File src, File dest, FileFilter filter) throws IOException {
+        if (src.isDirectory()) {
+            FileUtils.forceMkdir(dest);
+            //noinspection ConstantConditions
+            for (File child : src.listFiles(filter)) {
+                materialise(child, new File(dest, child.getName()), filter);
+            }
+        } else {
+            link(store(src), dest);
+        }
+    }
+
+    private File store(File src) throws IOException {
+        final File stored = new File(dir, hash(src));
+        if (!stored.exists()) {
+            FileUtils.forceMkdir(dir);
+            // copied aside and moved into place, so a stored artifact is always complete
+            final File tmp = File.createTempFile(stored.getName(), ".tmp", dir);
+            try {
+                FileCopier.copyFile(src, tmp);
+                Files.move(tmp.toPath(), stored.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                FileUtils.deleteQuietly(tmp);
+            }
+        }
+        return stored;
+    }
+
+    private String hash(File src) throws IOException {
+        final String key = src.getCanonicalPath() + ':' + src.length() + ':' + src.lastModified();
+        String hash = hashes.get(key);
+        if (hash == null) {
+            hash = com.google.common.io.Files.hash(src, Hashing.sha1()).toString();
+            hashes.put(key, hash);
+        }
+        return hash;
+    }
+
+    private static void link(File stored, File dest) throws IOException {
+        Files.deleteIfExists(dest.toPath());
+        try {
+            Files.createLink(dest.toPath(), stored.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.debug("could not link " + dest + " to " + stored + ", copying instead: " + e);
+            FileCopier.copyFile(stored, dest);
+        }
+    }
+
+    /**
+     * Removes the artifacts that are no longer in any context. Must not be called while contexts are being prepared.
+     *
+     * @return The number of artifacts removed.
+     */
+    int clean() throws IOException {
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        int removed = 0;
+        for (File file : files) {
+            final Object links;
+            try {
+                links = Files.getAttribute(file.toPath(), "unix:nlink");
+            } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                // without link counts, unused artifacts cannot be told apart
+                return removed;
+            }
+            if (links instanceof Integer && (Integer) links <= 1) {
+                Files.delete(file.toPath());
+                removed++;
+            }
+        }
+        return removed;
+    }
+}
@@ -0,0 +1,144 @@
+package com.alexecollins.docker.orchestration;
+
+import com.github.dockerjava.api.DockerClient;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link DockerClient} decorator that makes concurrent identical read requests (listing and inspecting containers
+ * and images) share a single call to the daemon, and optionally re-uses the result for a short time.
+ * <p/>
+ * Any command that may change the daemon's state (e.g. creating, starting or removing a container, or building an
+ * image) empties the cache once it has executed. Results are shared between callers, so must not be modified.
+ */
+public final class CoalescingDockerClient extends DockerClientDecorator {
+
+    private static final Set<String> READS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "listContainersCmd", "listImagesCmd", "inspectContainerCmd", "inspectImageCmd", "infoCmd", "versionCmd")));
+    private static final Set<String> NON_MUTATING = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "pingCmd", "authCmd", "searchImagesCmd", "saveImageCmd", "logContainerCmd", "attachContainerCmd",
+            "waitContainerCmd", "topContainerCmd", "containerDiffCmd", "copyFileFromContainerCmd", "inspectExecCmd",
+            "eventsCmd")));
+
+    private final long ttlMillis;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong calls = new AtomicLong();
+
+    /**
+     * @param ttlMillis How long to re-use the result of a read for. Zero to only share calls that are in flight.
+     */
+    public CoalescingDockerClient(DockerClient delegate, long ttlMillis) {
+        super(delegate);
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("ttlMillis is negative");
+        }
+        this.ttlMillis = ttlMillis;
+    }
+
+    @Override
+    protected Object exec(String command, String key, Callable<Object> exec) throws Exception {
+        if (READS.contains(command)) {
+            return read(key, exec);
+        }
+        try {
+            return exec.call();
+        } finally {
+            if (!NON_MUTATING.contains(command)) {
+                entries.clear();
+            }
+        }
+    }
+
+    private Object read(String key, Callable<Object> exec) throws Exception {
+        requests.incrementAndGet();
+        while (true) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.isExpired()) {
+                entries.remove(key, entry);
+                continue;
+            }
+            if (entry == null) {
+                final Entry created = new Entry(exec);
+                entry = entries.putIfAbsent(key, created);
+                if (entry == null) {
+                    entry = created;
+                    calls.incrementAndGet();
+                    created.run();
+                    if (ttlMillis == 0 || !created.succeeded()) {
+                        entries.remove(key, created);
+                    }
+                }
+            }
+            return entry.get();
+        }
+    }
+
+    /**
+     * @return The number of read requests made.
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return The number of read requests that were passed on to the daemon.
+     */
+    public long getCalls() {
+        return calls.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CoalescingDockerClient{requests=" + requests + ", calls=" + calls + '}';
+    }
+
+    private final class Entry {
+        private final FutureTask<Object> future;
+        private volatile long expires = Long.MAX_VALUE;
+        private volatile boolean succeeded;
+
+        private Entry(final Callable<Object> exec) {
+            future = new FutureTask<>(exec);
+        }
+
+        private void run() {
+            future.run();
+            try {
+                future.get();
+                succeeded = true;
+            } catch (InterruptedException | ExecutionException ignored) {
+                // reported by get()
+            }
+            expires = System.currentTimeMillis() + ttlMillis;
+        }
+
+        private boolean succeeded() {
+            return succeeded;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() > expires;
+        }
+
+        private Object get() throws Exception {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw (Error) e.getCause();
+            }
+        }
+    }
+}
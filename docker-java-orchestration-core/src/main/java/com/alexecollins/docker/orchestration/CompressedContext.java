@@ -0,0 +1,150 @@
+package com.alexecollins.docker.orchestration;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip compresses a build context tar, one block per thread.
+ * <p/>
+ * Each block is written as its own gzip member. A stream of concatenated members is a valid gzip stream, and is what
+ * the daemon decompresses when it is sent a compressed context.
+ */
+final class CompressedContext {
+
+    /**
+     * Contexts smaller than this are sent as they are, as compressing them saves less time than it takes.
+     */
+    static final int THRESHOLD = 1024 * 1024;
+
+    static final int BLOCK_SIZE = 1024 * 1024;
+
+    private CompressedContext() {
+    }
+
+    /**
+     * @param tar       Closed by this method.
+     * @param threshold Contexts smaller than this are not compressed.
+     * @return The compressed context, or the context unchanged if it is smaller than the threshold. Must be closed.
+     */
+    static InputStream compress(InputStream tar, int threshold) throws IOException {
+        try {
+            final byte[] head = new byte[threshold];
+            final int headLength = IOUtils.read(tar, head);
+            if (headLength < threshold) {
+                return new ByteArrayInputStream(head, 0, headLength);
+            }
+
+            final File file = File.createTempFile("context", ".tar.gz");
+            try {
+                final OutputStream out = new FileOutputStream(file);
+                try {
+                    compress(head, tar, out, Runtime.getRuntime().availableProcessors());
+                } finally {
+                    out.close();
+                }
+                return new DeleteOnCloseInputStream(file);
+            } catch (IOException | RuntimeException e) {
+                FileUtils.deleteQuietly(file);
+                throw e;
+            }
+        } finally {
+            tar.close();
+        }
+    }
+
+    /**
+     * At most twice as many blocks as threads are held in memory at any time.
+     */
+    static void compress(byte[] head, InputStream in, OutputStream out, int threads) throws IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final Deque<Future<byte[]>> blocks = new ArrayDeque<>();
+            for (int offset = 0; offset < head.length; offset += BLOCK_SIZE) {
+                blocks.add(executor.submit(compressor(Arrays.copyOfRange(head, offset, Math.min(offset + BLOCK_SIZE, head.length)))));
+                while (blocks.size() >= threads * 2) {
+                    out.write(get(blocks.remove()));
+                }
+            }
+            while (true) {
+                final byte[] block = new byte[BLOCK_SIZE];
+                final int length = IOUtils.read(in, block);
+                if (length == 0) {
+                    break;
+                }
+                blocks.add(executor.submit(compressor(length < BLOCK_SIZE ? Arrays.copyOf(block, length) : block)));
+                while (blocks.size() >= threads * 2) {
+                    out.write(get(blocks.remove()));
+                }
+            }
+            while (!blocks.isEmpty()) {
+                out.write(get(blocks.remove()));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Callable<byte[]> compressor(final byte[] block) {
+        return new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream(block.length / 2);
+                final GZIPOutputStream gzip = new GZIPOutputStream(out);
+                gzip.write(block);
+                gzip.close();
+                return out.toByteArray();
+            }
+        };
+    }
+
+    private static byte[] get(Future<byte[]> block) throws IOException {
+        try {
+            return block.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OrchestrationException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new OrchestrationException(e.getCause());
+        }
+    }
+
+    private static final class DeleteOnCloseInputStream extends FilterInputStream {
+        private final File file;
+
+        DeleteOnCloseInputStream(File file) throws IOException {
+            super(new FileInputStream(file));
+            this.file = file;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                FileUtils.deleteQuietly(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.alexecollins.docker.orchestration;
+
+import com.alexecollins.docker.orchestration.model.Conf;
+import com.alexecollins.docker.orchestration.model.Id;
+import com.alexecollins.docker.orchestration.model.Link;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+import com.fasterxml.jackson.databind.type.MapLikeType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * On-disk cache of the resolved configuration of a repo.
+ * <p/>
+ * Entries are keyed by the content of {@code docker.yml}, the definition folders, their {@code conf.yml} files and
+ * the values of the properties those files reference, so any change to them results in a miss. The model is stored
+ * as deflated JSON after a header of the format version and the key. Bump {@link #VERSION} when the stored form of the
+ * model changes; any entry that cannot be read, whatever the reason, is treated as a miss.
+ */
+class ConfCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConfCache.class);
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Pattern TOKEN = Pattern.compile("\\$\\{([^}]*)\\}");
+    private static final int VERSION = 2;
+    /**
+     * Ids and links are written as they are in configuration, and the derived tag is not written.
+     */
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false)
+            .configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false)
+            .addMixIn(Id.class, AsString.class)
+            .addMixIn(Link.class, AsString.class)
+            .addMixIn(Conf.class, ConfMixIn.class);
+    private static final MapLikeType CONFS = MAPPER.getTypeFactory().constructMapType(LinkedHashMap.class, Id.class, Conf.class);
+
+    private final File file;
+
+    ConfCache(File file) {
+        if (file == null) {
+            throw new IllegalArgumentException("file is null");
+        }
+        this.file = file;
+    }
+
+    static String key(File src, Properties properties) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        final SortedSet<String> tokens = new TreeSet<>();
+
+        digestFile(digest, tokens, new File(src, "docker.yml"));
+
+        File[] folders = src.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File pathname) {
+                return pathname.isDirectory();
+            }
+        });
+        if (folders != null) {
+            Arrays.sort(folders);
+            for (File folder : folders) {
+                digest.update(folder.getName().getBytes(UTF_8));
+                digestFile(digest, tokens, new File(folder, "conf.yml"));
+            }
+        }
+
+        for (String token : tokens) {
+            digest.update(token.getBytes(UTF_8));
+            final Object value = properties.get(token);
+            // distinguish an unset property from one set to the empty string
+            digest.update(value == null ? new byte[]{0} : ("=" + value).getBytes(UTF_8));
+        }
+
+        final StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    private static void digestFile(MessageDigest digest, SortedSet<String> tokens, File file) throws IOException {
+        if (!file.isFile()) {
+            digest.update((byte) 0);
+            return;
+        }
+        final byte[] content = Files.readAllBytes(file.toPath());
+        digest.update(file.getName().getBytes(UTF_8));
+        digest.update(content);
+        final Matcher matcher = TOKEN.matcher(new String(content, UTF_8));
+        while (matcher.find()) {
+            tokens.add(matcher.group(1));
+        }
+    }
+
+    /**
+     * @return The cached configuration, or null if there is no valid entry for the key.
+     */
+    Map<Id, Conf> read(String key) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new BufferedInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != VERSION || !key.equals(in.readUTF())) {
+                return null;
+            }
+            return MAPPER.readValue(in, CONFS);
+        } catch (IOException | RuntimeException e) {
+            LOG.debug("ignoring unreadable configuration cache " + file, e);
+            return null;
+        }
+    }
+
+    void write(String key, Map<Id, Conf> confs) {
+        final File tmp = new File(file.getPath() + ".tmp");
+        //noinspection ResultOfMethodCallIgnored
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))))) {
+            out.writeInt(VERSION);
+            out.writeUTF(key);
+            MAPPER.writeValue(out, confs);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("failed to write configuration cache " + file + ": " + e.getMessage());
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            return;
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        if (!tmp.renameTo(file)) {
+            LOG.warn("failed to move " + tmp + " to " + file);
+        }
+    }
+
+    @JsonSerialize(using = ToStringSerializer.class)
+    private abstract static class AsString {
+    }
+
+    @JsonIgnoreProperties("tag")
+    private abstract static class ConfMixIn {
+    }
+}
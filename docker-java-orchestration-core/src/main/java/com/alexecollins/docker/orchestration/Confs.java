@@ -4,6 +4,7 @@ import com.alexecollins.docker.orchestration.model.Conf;
 import com.alexecollins.docker.orchestration.model.Id;
 import com.alexecollins.docker.orchestration.util.PropertiesTokenResolver;
 import com.alexecollins.docker.orchestration.util.TokenReplacingReader;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.type.MapLikeType;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
@@ -19,7 +20,11 @@ import java.util.Properties;
 
 class Confs {
 
-    private static final ObjectMapper MAPPER = new ObjectMapper(new YAMLFactory());
+    /**
+     * Shared by all readers. Fully configured before first use, so safe to use from several threads at once.
+     */
+    private static final ObjectMapper MAPPER = new ObjectMapper(new YAMLFactory())
+            .configure(JsonGenerator.Feature.IGNORE_UNKNOWN, true);
 
     static Reader replacingReader(File confFile, Properties properties) throws FileNotFoundException {
         return new TokenReplacingReader(new FileReader(confFile), new PropertiesTokenResolver(properties));
@@ -29,4 +34,8 @@ class Confs {
         MapLikeType mapLikeType = MAPPER.getTypeFactory().constructMapType(LinkedHashMap.class, Id.class, Conf.class);
         return MAPPER.readValue(replacingReader(dockerConf, properties), mapLikeType);
     }
+
+    static Conf readConf(File confFile, Properties properties) throws IOException {
+        return confFile.length() > 0 ? MAPPER.readValue(replacingReader(confFile, properties), Conf.class) : new Conf();
+    }
 }
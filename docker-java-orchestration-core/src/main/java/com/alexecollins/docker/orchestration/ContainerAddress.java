@@ -0,0 +1,61 @@
+package com.alexecollins.docker.orchestration;
+
+import com.github.dockerjava.api.command.InspectContainerResponse;
+import com.github.dockerjava.api.model.ExposedPort;
+import com.github.dockerjava.api.model.Ports;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Where a container can be reached: its IP address on the daemon's network, and the host ports it publishes.
+ */
+public final class ContainerAddress {
+
+    private final String ipAddress;
+    private final Map<ExposedPort, Integer> hostPorts;
+
+    ContainerAddress(String ipAddress, Map<ExposedPort, Integer> hostPorts) {
+        this.ipAddress = ipAddress;
+        this.hostPorts = Collections.unmodifiableMap(new LinkedHashMap<>(hostPorts));
+    }
+
+    static ContainerAddress of(InspectContainerResponse inspection) {
+        final InspectContainerResponse.NetworkSettings networkSettings = inspection.getNetworkSettings();
+        final Map<ExposedPort, Integer> hostPorts = new LinkedHashMap<>();
+        final Ports ports = networkSettings.getPorts();
+        if (ports != null) {
+            for (Map.Entry<ExposedPort, Ports.Binding[]> entry : ports.getBindings().entrySet()) {
+                final Ports.Binding[] bindings = entry.getValue();
+                if (bindings != null && bindings.length > 0 && bindings[0].getHostPort() != null) {
+                    hostPorts.put(entry.getKey(), bindings[0].getHostPort());
+                }
+            }
+        }
+        return new ContainerAddress(networkSettings.getIpAddress(), hostPorts);
+    }
+
+    public String getIpAddress() {
+        return ipAddress;
+    }
+
+    /**
+     * @return The host port each published container port is bound to.
+     */
+    public Map<ExposedPort, Integer> getHostPorts() {
+        return hostPorts;
+    }
+
+    /**
+     * @return The host port the TCP container port is bound to, or null if it is not published.
+     */
+    public Integer getHostPort(int port) {
+        return hostPorts.get(ExposedPort.tcp(port));
+    }
+
+    @Override
+    public String toString() {
+        return ipAddress + " " + hostPorts;
+    }
+}
@@ -0,0 +1,48 @@
+package com.alexecollins.docker.orchestration;
+
+import com.github.dockerjava.api.DockerClient;
+
+/**
+ * A Docker daemon that containers can be placed on.
+ */
+final class Daemon {
+
+    static final String DEFAULT_NAME = "default";
+
+    private final String name;
+    private final DockerClient docker;
+    private final String host;
+
+    /**
+     * @param host The address that containers on other daemons reach this daemon's published ports at, maybe null if
+     *             no container on another daemon links to a container on this one.
+     */
+    Daemon(String name, DockerClient docker, String host) {
+        if (name == null) {
+            throw new IllegalArgumentException("name is null");
+        }
+        if (docker == null) {
+            throw new IllegalArgumentException("docker is null");
+        }
+        this.name = name;
+        this.docker = docker;
+        this.host = host;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    DockerClient getDocker() {
+        return docker;
+    }
+
+    String getHost() {
+        return host;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,309 @@
+package com.alexecollins.docker.orchestration;
+
+import com.alexecollins.docker.orchestration.model.Conf;
+import com.alexecollins.docker.orchestration.model.Id;
+import com.alexecollins.docker.orchestration.model.Link;
+import com.github.dockerjava.api.model.Bind;
+import com.github.dockerjava.api.model.ExposedPort;
+import com.github.dockerjava.api.model.InternetProtocol;
+import com.github.dockerjava.api.model.PortBinding;
+import com.github.dockerjava.api.model.Ports;
+import com.github.dockerjava.api.model.Volume;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything the orchestrator needs to know about a single definition, resolved once from the repo.
+ * <p/>
+ * The container spec (ports, binds, env, links and extra hosts) is only resolved, and therefore validated, for
+ * definitions that are included. Arrays are shared; callers must not modify them.
+ */
+final class Definition {
+
+    /**
+     * Docker 1.3.0's API has no container labels, so the spec hash is recorded in the container's environment, where
+     * the application can see it too. It is not part of the hash, and cannot be configured.
+     */
+    static final String SPEC_HASH_ENV = "DOCKER_ORCHESTRATION_SPEC_HASH";
+
+    private final Id id;
+    private final Conf conf;
+    private final boolean included;
+    private final File src;
+    private final String tag;
+    private final String imageName;
+    private final String containerName;
+    private final String namespace;
+    private final String repository;
+    private final List<String[]> otherTags;
+    private final List<Link> links;
+    private final List<Id> linkIds;
+    private final PortBinding[] portBindings;
+    private final Bind[] binds;
+    private final String[] env;
+    private final String[] extraHosts;
+    private final String specHash;
+
+    Definition(Id id, Conf conf, boolean included, File src, String tag, String imageName, String containerName) {
+        this(id, conf, included, src, tag, imageName, containerName, false, null);
+    }
+
+    /**
+     * @param dynamicPorts Publish ports on host ports chosen by the daemon, rather than those configured.
+     * @param namespace    Suffixed to the container name, so runs in different namespaces have different containers.
+     *                     Maybe null.
+     */
+    Definition(Id id, Conf conf, boolean included, File src, String tag, String imageName, String containerName, boolean dynamicPorts, String namespace) {
+        if (id == null) {
+            throw new IllegalArgumentException("id is null");
+        }
+        if (conf == null) {
+            throw new IllegalArgumentException("conf is null");
+        }
+        this.id = id;
+        this.conf = conf;
+        this.included = included;
+        this.src = src;
+        this.tag = tag;
+        this.imageName = imageName;
+        this.containerName = namespace != null ? containerName + "_" + namespace : containerName;
+        this.namespace = namespace;
+        this.repository = tag.replaceFirst(":[^:]*$", "");
+        this.otherTags = otherTags(conf.getTags());
+        this.links = Collections.unmodifiableList(new ArrayList<>(conf.getLinks()));
+        final List<Id> linkIds = new ArrayList<>();
+        for (Link link : links) {
+            linkIds.add(link.getId());
+        }
+        this.linkIds = Collections.unmodifiableList(linkIds);
+        if (included) {
+            this.portBindings = portBindings(id, conf.getPorts(), dynamicPorts);
+            this.binds = binds(conf.getVolumes());
+            this.env = env(id, conf.getEnv());
+            this.extraHosts = conf.getExtraHosts().toArray(new String[conf.getExtraHosts().size()]);
+            this.specHash = specHash();
+        } else {
+            this.portBindings = null;
+            this.binds = null;
+            this.env = null;
+            this.extraHosts = null;
+            this.specHash = null;
+        }
+    }
+
+    /**
+     * Hashes everything that goes into creating the container, other than the image, which is compared by id.
+     */
+    private String specHash() {
+        final Hasher hasher = Hashing.sha1().newHasher();
+        hasher.putString(containerName, Charsets.UTF_8).putByte((byte) 0);
+        hasher.putBoolean(conf.isPrivileged());
+        for (PortBinding portBinding : portBindings) {
+            hasher.putString("port " + portBinding.getBinding().getHostPort() + " " + portBinding.getExposedPort(), Charsets.UTF_8).putByte((byte) 0);
+        }
+        for (Bind bind : binds) {
+            hasher.putString("bind " + bind.getPath() + " " + bind.getVolume().getPath(), Charsets.UTF_8).putByte((byte) 0);
+        }
+        final String[] sortedEnv = env.clone();
+        Arrays.sort(sortedEnv);
+        for (String entry : sortedEnv) {
+            hasher.putString("env " + entry, Charsets.UTF_8).putByte((byte) 0);
+        }
+        for (Link link : links) {
+            hasher.putString("link " + link.getId() + " " + link.getAlias(), Charsets.UTF_8).putByte((byte) 0);
+        }
+        for (String extraHost : extraHosts) {
+            hasher.putString("extraHost " + extraHost, Charsets.UTF_8).putByte((byte) 0);
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * @return Pairs of repository and tag name, for each tag that names both.
+     */
+    private static List<String[]> otherTags(List<String> tags) {
+        final List<String[]> out = new ArrayList<>();
+        for (String otherTag : tags) {
+            int lastIndexOfColon = otherTag.lastIndexOf(':');
+            if (lastIndexOfColon > -1) {
+                out.add(new String[]{otherTag.substring(0, lastIndexOfColon), otherTag.substring(lastIndexOfColon + 1)});
+            }
+        }
+        return Collections.unmodifiableList(out);
+    }
+
+    private static PortBinding[] portBindings(Id id, List<String> ports, boolean dynamicPorts) {
+        final PortBinding[] out = new PortBinding[ports.size()];
+        for (int i = 0; i < out.length; i++) {
+            final String port = ports.get(i);
+            final String[] split = port.trim().split(" +");
+            if (split.length > 2) {
+                throw new OrchestrationException("invalid port \"" + port + "\" for " + id + ", expected \"<port>\" or \"<host port> <container port>\"");
+            }
+            final int hostPort = port(id, split[0]);
+            final int containerPort = split.length == 2 ? port(id, split[1]) : hostPort;
+            // a binding without a host port is published on one chosen by the daemon
+            out[i] = new PortBinding(new Ports.Binding(dynamicPorts ? null : hostPort), new ExposedPort(containerPort, InternetProtocol.TCP));
+        }
+        return out;
+    }
+
+    private static int port(Id id, String value) {
+        final int port;
+        try {
+            port = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new OrchestrationException("invalid port \"" + value + "\" for " + id);
+        }
+        if (port < 1 || port > 65535) {
+            throw new OrchestrationException("port " + port + " for " + id + " is out of range");
+        }
+        return port;
+    }
+
+    private static Bind[] binds(Map<String, String> volumes) {
+        final List<Bind> binds = new ArrayList<>();
+        for (Map.Entry<String, String> entry : volumes.entrySet()) {
+            binds.add(new Bind(new File(entry.getValue()).getAbsolutePath(), new Volume(entry.getKey())));
+        }
+        return binds.toArray(new Bind[binds.size()]);
+    }
+
+    /**
+     * Converts String to String map to list of
+     * key=value strings.
+     */
+    private static String[] env(Id id, Map<String, String> env) {
+        final List<String> list = new ArrayList<>();
+        for (Map.Entry<String, String> entry : env.entrySet()) {
+            if (entry.getKey().equals(SPEC_HASH_ENV)) {
+                throw new OrchestrationException("env " + SPEC_HASH_ENV + " for " + id + " is reserved for the orchestrator");
+            }
+            list.add(entry.getKey() + "=" + entry.getValue());
+        }
+        return list.toArray(new String[list.size()]);
+    }
+
+    private void checkIncluded() {
+        if (!included) {
+            throw new IllegalStateException(id + " is not included");
+        }
+    }
+
+    Id getId() {
+        return id;
+    }
+
+    Conf getConf() {
+        return conf;
+    }
+
+    boolean isIncluded() {
+        return included;
+    }
+
+    File getSrc() {
+        return src;
+    }
+
+    String getTag() {
+        return tag;
+    }
+
+    String getImageName() {
+        return imageName;
+    }
+
+    String getContainerName() {
+        return containerName;
+    }
+
+    /**
+     * @return Maybe null.
+     */
+    String getNamespace() {
+        return namespace;
+    }
+
+    /**
+     * @return The tag without any version, i.e. what to push.
+     */
+    String getRepository() {
+        return repository;
+    }
+
+    List<String[]> getOtherTags() {
+        return otherTags;
+    }
+
+    List<Link> getLinks() {
+        return links;
+    }
+
+    List<Id> getLinkIds() {
+        return linkIds;
+    }
+
+    PortBinding[] getPortBindings() {
+        checkIncluded();
+        return portBindings;
+    }
+
+    Bind[] getBinds() {
+        checkIncluded();
+        return binds;
+    }
+
+    String[] getEnv() {
+        checkIncluded();
+        return env;
+    }
+
+    String[] getExtraHosts() {
+        checkIncluded();
+        return extraHosts;
+    }
+
+    String getSpecHash() {
+        checkIncluded();
+        return specHash;
+    }
+
+    /**
+     * @return The env to create the container with, i.e. the configured env plus the spec hash.
+     */
+    String[] getContainerEnv() {
+        checkIncluded();
+        final String[] out = Arrays.copyOf(env, env.length + 1);
+        out[env.length] = SPEC_HASH_ENV + "=" + specHash;
+        return out;
+    }
+
+    /**
+     * @param containerEnv The env of an existing container, maybe null.
+     * @return The spec hash that container was created with, or null if it does not have one.
+     */
+    static String specHash(String[] containerEnv) {
+        if (containerEnv != null) {
+            for (String entry : containerEnv) {
+                if (entry.startsWith(SPEC_HASH_ENV + "=")) {
+                    return entry.substring(SPEC_HASH_ENV.length() + 1);
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return id.toString();
+    }
+}
@@ -0,0 +1,176 @@
+package com.alexecollins.docker.orchestration;
+
+import com.alexecollins.docker.orchestration.model.Conf;
+import com.alexecollins.docker.orchestration.model.Id;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The definitions of a repo, compiled once, in start order.
+ */
+final class Definitions {
+
+    private final Map<Id, Definition> definitions;
+    private final List<Id> ids;
+    private final List<Definition> included;
+    private final List<Definition> includedReversed;
+
+    private Definitions(Map<Id, Definition> definitions) {
+        this.definitions = definitions;
+        this.ids = Collections.unmodifiableList(new ArrayList<>(definitions.keySet()));
+        final List<Definition> included = new ArrayList<>();
+        for (Definition definition : definitions.values()) {
+            if (definition.isIncluded()) {
+                included.add(definition);
+            }
+        }
+        this.included = Collections.unmodifiableList(included);
+        final List<Definition> includedReversed = new ArrayList<>(included);
+        Collections.reverse(includedReversed);
+        this.includedReversed = Collections.unmodifiableList(includedReversed);
+    }
+
+    static Definitions compile(Repo repo, DefinitionFilter definitionFilter, Logger logger) {
+        return compile(repo, definitionFilter, false, null, logger);
+    }
+
+    /**
+     * @param dynamicPorts Publish ports on host ports chosen by the daemon, rather than those configured.
+     * @param namespace    The run's namespace, maybe null.
+     */
+    static Definitions compile(Repo repo, DefinitionFilter definitionFilter, boolean dynamicPorts, String namespace, Logger logger) {
+        final Map<Id, Definition> definitions = new LinkedHashMap<>();
+        for (Id id : repo.ids(false)) {
+            final Conf conf = repo.conf(id);
+            final boolean included = inclusive(id, conf, definitionFilter, logger);
+            definitions.put(id, new Definition(id, conf, included, repo.src(id), repo.tag(id), repo.imageName(id), repo.containerName(id), dynamicPorts, namespace));
+        }
+        for (Definition definition : definitions.values()) {
+            // an excluded definition is never started, so its links need never resolve
+            if (!definition.isIncluded()) {
+                continue;
+            }
+            for (Id linkId : definition.getLinkIds()) {
+                if (!definitions.containsKey(linkId)) {
+                    throw new OrchestrationException(definition.getId() + " links to " + linkId + ", which is not defined");
+                }
+            }
+        }
+        return new Definitions(definitions);
+    }
+
+    private static boolean inclusive(Id id, Conf conf, DefinitionFilter definitionFilter, Logger logger) {
+        if (!definitionFilter.test(id, conf)) {
+            logger.info("Not including " + id + ", filtered out");
+            return false;
+        }
+        if (!conf.isEnabled()) {
+            logger.info("Not including " + id + ", not enabled");
+            return false;
+        }
+        return true;
+    }
+
+    Definition get(Id id) {
+        final Definition definition = definitions.get(id);
+        if (definition == null) {
+            throw new IllegalArgumentException("no definition for " + id);
+        }
+        return definition;
+    }
+
+    /**
+     * @return All ids, in start order.
+     */
+    List<Id> ids() {
+        return ids;
+    }
+
+    List<Definition> all() {
+        return new ArrayList<>(definitions.values());
+    }
+
+    /**
+     * @return Included definitions, in start order.
+     */
+    List<Definition> included() {
+        return included;
+    }
+
+    /**
+     * @return Included definitions, in stop order.
+     */
+    List<Definition> includedReversed() {
+        return includedReversed;
+    }
+
+    /**
+     * @param ids Each must be included.
+     * @return The definitions of the ids, and the included definitions that link to them, directly or not, in start
+     * order.
+     */
+    List<Definition> withDependents(Collection<Id> ids) {
+        checkIncluded(ids);
+        final Set<Id> affected = new HashSet<>(ids);
+        // in start order, a definition comes after everything it links to
+        final List<Definition> out = new ArrayList<>();
+        for (Definition definition : included) {
+            if (!affected.contains(definition.getId())) {
+                for (Id linkId : definition.getLinkIds()) {
+                    if (affected.contains(linkId)) {
+                        affected.add(definition.getId());
+                        break;
+                    }
+                }
+            }
+            if (affected.contains(definition.getId())) {
+                out.add(definition);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * @param ids Each must be included, as must each definition they link to, directly or not.
+     * @return The definitions of the ids, and those they link to, directly or not, in start order.
+     */
+    List<Definition> withLinks(Collection<Id> ids) {
+        checkIncluded(ids);
+        final Set<Id> required = new HashSet<>(ids);
+        // in stop order, a definition comes before everything it links to
+        for (Definition definition : includedReversed) {
+            if (required.contains(definition.getId())) {
+                for (Id linkId : definition.getLinkIds()) {
+                    // e.g. it is not validated, so cannot be started
+                    if (!get(linkId).isIncluded()) {
+                        throw new IllegalArgumentException(definition.getId() + " links to " + linkId + ", which is not included, e.g. it is disabled or filtered out");
+                    }
+                    required.add(linkId);
+                }
+            }
+        }
+        final List<Definition> out = new ArrayList<>();
+        for (Definition definition : included) {
+            if (required.contains(definition.getId())) {
+                out.add(definition);
+            }
+        }
+        return out;
+    }
+
+    private void checkIncluded(Collection<Id> ids) {
+        for (Id id : ids) {
+            if (!get(id).isIncluded()) {
+                throw new IllegalArgumentException(id + " is not included, e.g. it is disabled or filtered out");
+            }
+        }
+    }
+}
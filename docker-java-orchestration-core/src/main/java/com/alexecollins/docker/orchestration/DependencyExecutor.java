@@ -0,0 +1,113 @@
+package com.alexecollins.docker.orchestration;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a set of tasks, each as soon as the tasks it depends on have finished.
+ * <p/>
+ * A dependency on a task that is not given is an error, as the task could never be known to have finished. The first
+ * failure cancels all remaining tasks and is re-thrown.
+ */
+final class DependencyExecutor<K> {
+
+    private final ExecutorService executor;
+
+    DependencyExecutor(ExecutorService executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor is null");
+        }
+        this.executor = executor;
+    }
+
+    private static RuntimeException unwrap(ExecutionException e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new OrchestrationException(cause);
+    }
+
+    /**
+     * @param tasks        In preferred order, e.g. start order.
+     * @param dependencies The tasks each task depends on, each of which must be one of the tasks.
+     */
+    void execute(Map<K, Runnable> tasks, Map<K, List<K>> dependencies) {
+        for (Map.Entry<K, List<K>> entry : dependencies.entrySet()) {
+            for (K dependency : entry.getValue()) {
+                if (!tasks.containsKey(dependency)) {
+                    throw new IllegalArgumentException(entry.getKey() + " depends on " + dependency + ", which is not a task");
+                }
+            }
+        }
+        final CompletionService<K> completionService = new ExecutorCompletionService<>(executor);
+        final Map<K, Runnable> pending = new LinkedHashMap<>(tasks);
+        final Set<K> unfinished = new HashSet<>(tasks.keySet());
+        final List<Future<K>> running = new ArrayList<>();
+
+        try {
+            submitReady(completionService, pending, unfinished, dependencies, running);
+            while (!unfinished.isEmpty()) {
+                if (running.isEmpty()) {
+                    throw new IllegalStateException("dependency error (e.g. circular dependency) amongst " + pending.keySet());
+                }
+                final Future<K> future = completionService.take();
+                running.remove(future);
+                try {
+                    unfinished.remove(future.get());
+                } catch (ExecutionException e) {
+                    throw unwrap(e);
+                }
+                submitReady(completionService, pending, unfinished, dependencies, running);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OrchestrationException(e);
+        } finally {
+            for (Future<K> future : running) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private void submitReady(CompletionService<K> completionService, Map<K, Runnable> pending, Set<K> unfinished,
+                             Map<K, List<K>> dependencies, List<Future<K>> running) {
+        for (final K id : new ArrayList<>(pending.keySet())) {
+            if (isReady(id, unfinished, dependencies)) {
+                final Runnable task = pending.remove(id);
+                running.add(completionService.submit(new Callable<K>() {
+                    @Override
+                    public K call() {
+                        task.run();
+                        return id;
+                    }
+                }));
+            }
+        }
+    }
+
+    private boolean isReady(K id, Set<K> unfinished, Map<K, List<K>> dependencies) {
+        final List<K> ids = dependencies.get(id);
+        if (ids != null) {
+            for (K dependency : ids) {
+                if (unfinished.contains(dependency)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
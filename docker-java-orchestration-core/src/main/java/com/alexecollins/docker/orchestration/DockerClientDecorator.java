@@ -0,0 +1,105 @@
+package com.alexecollins.docker.orchestration;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.command.DockerCmd;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Wraps a {@link DockerClient} so that the {@code exec()} of every command it creates goes through
+ * {@link #exec(String, String, Callable)}. Everything else is passed straight through.
+ */
+abstract class DockerClientDecorator {
+
+    private final DockerClient dockerClient;
+
+    DockerClientDecorator(final DockerClient delegate) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate is null");
+        }
+        dockerClient = (DockerClient) Proxy.newProxyInstance(DockerClient.class.getClassLoader(), new Class[]{DockerClient.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                final Object result = invokeDelegate(delegate, method, args);
+                if (result != null && method.getReturnType().isInterface() && DockerCmd.class.isAssignableFrom(method.getReturnType())) {
+                    return cmd(method, args, result);
+                }
+                return result;
+            }
+        });
+    }
+
+    private static Object invokeDelegate(Object delegate, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(delegate, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private Object cmd(Method factory, Object[] factoryArgs, final Object delegate) {
+        final String command = factory.getName();
+        final List<String> arguments = new ArrayList<>();
+        arguments.add(Arrays.deepToString(factoryArgs));
+        final Class<?> type = factory.getReturnType();
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, final Method method, final Object[] args) throws Throwable {
+                if (method.getName().equals("exec") && method.getParameterTypes().length == 0) {
+                    final String key;
+                    synchronized (arguments) {
+                        key = command + arguments;
+                    }
+                    try {
+                        return exec(command, key, new Callable<Object>() {
+                            @Override
+                            public Object call() throws Exception {
+                                try {
+                                    return invokeDelegate(delegate, method, args);
+                                } catch (Exception | Error e) {
+                                    throw e;
+                                } catch (Throwable t) {
+                                    throw new OrchestrationException(t);
+                                }
+                            }
+                        });
+                    } catch (RuntimeException | Error e) {
+                        throw e;
+                    } catch (Exception e) {
+                        throw new OrchestrationException(e);
+                    }
+                }
+                final Object result = invokeDelegate(delegate, method, args);
+                if (method.getName().startsWith("with")) {
+                    synchronized (arguments) {
+                        arguments.add(method.getName() + Arrays.deepToString(args));
+                    }
+                }
+                return result == delegate ? proxy : result;
+            }
+        });
+    }
+
+    /**
+     * @return The decorated client.
+     */
+    public DockerClient getDockerClient() {
+        return dockerClient;
+    }
+
+    /**
+     * Called in place of a command's {@code exec()}.
+     *
+     * @param command The name of the {@link DockerClient} method that created the command, e.g. "listContainersCmd".
+     * @param key     The command and all of its arguments. Equal keys are equal requests.
+     * @param exec    Executes the command.
+     */
+    protected abstract Object exec(String command, String key, Callable<Object> exec) throws Exception;
+}
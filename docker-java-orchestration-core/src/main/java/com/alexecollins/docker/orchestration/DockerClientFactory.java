@@ -0,0 +1,119 @@
+package com.alexecollins.docker.orchestration;
+
+import com.alexecollins.docker.orchestration.client.ThinDockerCmdExecFactory;
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.core.DockerClientBuilder;
+import com.github.dockerjava.core.DockerClientConfig;
+import com.github.dockerjava.core.DockerClientImpl;
+import com.github.dockerjava.jaxrs.DockerCmdExecFactoryImpl;
+
+import javax.ws.rs.client.WebTarget;
+
+/**
+ * Creates a {@link DockerClient} whose connection pool is sized for the orchestrator, see
+ * {@link DockerOrchestratorBuilder#dockerClientFactory(DockerClientFactory)}.
+ * <p/>
+ * Anything not set comes from docker-java's defaults, i.e. the {@code DOCKER_HOST} and related environment variables
+ * and {@code docker.io.*} system properties. Use a {@code unix:///var/run/docker.sock} URI to talk to a local daemon
+ * over its Unix socket. Connections are pooled and kept alive between requests.
+ */
+public class DockerClientFactory {
+    private static final String CONNECT_TIMEOUT = "jersey.config.client.connectTimeout";
+
+    private String uri;
+    private Integer readTimeout;
+    private Integer connectTimeout;
+    private Integer maxConnections;
+    private boolean thin;
+
+    /**
+     * @return How many connections an orchestrator with the given parallelism may use at once: each container being
+     * started may be tailing its log while a command is made for it, plus one for listing.
+     */
+    static int connectionsFor(int parallelism) {
+        return 2 * parallelism + 1;
+    }
+
+    /**
+     * @param uri E.g. "unix:///var/run/docker.sock" or "https://192.168.59.103:2376".
+     */
+    public DockerClientFactory uri(String uri) {
+        this.uri = uri;
+        return this;
+    }
+
+    /**
+     * @param readTimeout Milliseconds.
+     */
+    public DockerClientFactory readTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+        return this;
+    }
+
+    /**
+     * @param connectTimeout Milliseconds.
+     */
+    public DockerClientFactory connectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+    /**
+     * @param maxConnections The size of the connection pool. By default this is sized to the orchestrator's parallelism.
+     */
+    public DockerClientFactory maxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    /**
+     * @param thin Use {@link ThinDockerCmdExecFactory}, which starts faster, rather than docker-java's Jersey client.
+     */
+    public DockerClientFactory thin(boolean thin) {
+        this.thin = thin;
+        return this;
+    }
+
+    DockerClientConfig config(int parallelism) {
+        final DockerClientConfig.DockerClientConfigBuilder config = DockerClientConfig.createDefaultConfigBuilder();
+        if (uri != null) {
+            config.withUri(uri);
+        }
+        if (readTimeout != null) {
+            config.withReadTimeout(readTimeout);
+        }
+        final int connections = maxConnections != null ? maxConnections : connectionsFor(parallelism);
+        // there is only one route, the daemon
+        config.withMaxTotalConnections(connections);
+        config.withMaxPerRouteConnections(connections);
+        return config.build();
+    }
+
+    public DockerClient create(int parallelism) {
+        if (thin) {
+            return DockerClientImpl.getInstance(config(parallelism))
+                    .withDockerCmdExecFactory(new ThinDockerCmdExecFactory(connectTimeout != null ? connectTimeout : 0));
+        }
+        final DockerClientBuilder builder = DockerClientBuilder.getInstance(config(parallelism));
+        if (connectTimeout != null) {
+            builder.withDockerCmdExecFactory(new ConnectTimeoutDockerCmdExecFactory(connectTimeout));
+        }
+        return builder.build();
+    }
+
+    /**
+     * docker-java does not have a connect timeout setting, but the connector honours it per request.
+     */
+    private static class ConnectTimeoutDockerCmdExecFactory extends DockerCmdExecFactoryImpl {
+        private final int connectTimeout;
+
+        private ConnectTimeoutDockerCmdExecFactory(int connectTimeout) {
+            this.connectTimeout = connectTimeout;
+        }
+
+        @Override
+        protected WebTarget getBaseResource() {
+            return super.getBaseResource().property(CONNECT_TIMEOUT, connectTimeout);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.alexecollins.docker.orchestration;
+
+import com.github.dockerjava.core.FilePathUtil;
+import com.github.dockerjava.core.GoLangFileMatch;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The patterns of a {@code .dockerignore} file, matched the same way as docker-java does when it sends the build
+ * context. The Dockerfile and the {@code .dockerignore} itself are never excluded.
+ */
+final class DockerIgnore {
+
+    static final DockerIgnore NONE = new DockerIgnore(Collections.<String>emptyList());
+
+    private final List<String> patterns;
+
+    private DockerIgnore(List<String> patterns) {
+        this.patterns = patterns;
+    }
+
+    static DockerIgnore read(File dockerFolder) throws IOException {
+        final File dockerIgnoreFile = new File(dockerFolder, ".dockerignore");
+        if (!dockerIgnoreFile.isFile()) {
+            return NONE;
+        }
+        final List<String> patterns = new ArrayList<>();
+        for (String pattern : FileUtils.readLines(dockerIgnoreFile)) {
+            pattern = pattern.trim();
+            if (!pattern.isEmpty()) {
+                patterns.add(FilenameUtils.normalize(pattern));
+            }
+        }
+        return new DockerIgnore(patterns);
+    }
+
+    /**
+     * @param path Relative to the root of the build context.
+     */
+    boolean isExcluded(String path) {
+        return !patterns.isEmpty() && !path.equals("Dockerfile") && !path.equals(".dockerignore") && GoLangFileMatch.match(patterns, path);
+    }
+
+    /**
+     * @param root The folder that is the root of the build context, or that will be copied to it.
+     * @return Accepts the files under the root that are not excluded. An excluded folder is not descended into.
+     */
+    FileFilter filter(final File root) {
+        return new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                // a folder's URI, and so its relative path, ends with a slash
+                final String path = FilePathUtil.relativize(root, file);
+                return !isExcluded(path.endsWith("/") ? path.substring(0, path.length() - 1) : path);
+            }
+        };
+    }
+}
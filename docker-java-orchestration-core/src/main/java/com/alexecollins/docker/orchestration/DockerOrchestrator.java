@@ -3,19 +3,20 @@ package com.alexecollins.docker.orchestration;
 
 import com.alexecollins.docker.orchestration.model.BuildFlag;
 import com.alexecollins.docker.orchestration.model.Conf;
-import com.alexecollins.docker.orchestration.model.ContainerConf;
 import com.alexecollins.docker.orchestration.model.HealthChecks;
 import com.alexecollins.docker.orchestration.model.Id;
 import com.alexecollins.docker.orchestration.model.Ping;
 import com.alexecollins.docker.orchestration.plugin.api.Plugin;
 import com.alexecollins.docker.orchestration.util.Pinger;
 import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.DockerClientException;
 import com.github.dockerjava.api.DockerException;
 import com.github.dockerjava.api.InternalServerErrorException;
 import com.github.dockerjava.api.NotFoundException;
 import com.github.dockerjava.api.command.BuildImageCmd;
 import com.github.dockerjava.api.command.CreateContainerCmd;
 import com.github.dockerjava.api.command.InspectContainerResponse;
+import com.github.dockerjava.api.command.PullImageCmd;
 import com.github.dockerjava.api.command.PushImageCmd;
 import com.github.dockerjava.api.model.Bind;
 import com.github.dockerjava.api.model.Container;
@@ -24,8 +25,8 @@ import com.github.dockerjava.api.model.Image;
 import com.github.dockerjava.api.model.InternetProtocol;
 import com.github.dockerjava.api.model.Link;
 import com.github.dockerjava.api.model.PortBinding;
-import com.github.dockerjava.api.model.Ports;
-import com.github.dockerjava.api.model.Volume;
+import com.github.dockerjava.core.dockerfile.Dockerfile;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,18 +36,34 @@ import java.io.FileFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.InetAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Properties;
 import java.util.ServiceLoader;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static java.util.Arrays.asList;
 
@@ -67,11 +84,23 @@ public class DockerOrchestrator {
     };
     private static final Logger DEFAULT_LOGGER = LoggerFactory.getLogger(DockerOrchestrator.class);
     private static final String CONTAINER_IP_PATTERN = "__CONTAINER.IP__";
+    private static final long DEFAULT_WATCH_QUIET_MILLIS = 500;
+    private static final Pattern NAMESPACE_PATTERN = Pattern.compile("[a-zA-Z0-9][a-zA-Z0-9_.-]*");
+    private static final Pattern HOST_PORT_PATTERN = Pattern.compile("__HOST\\.PORT\\.([0-9]+)__");
 
     private final Logger logger;
-    private final DockerClient docker;
+    private final List<Daemon> daemons;
+    private final PlacementPolicy placementPolicy;
+    private final Map<Id, Daemon> placements = new ConcurrentHashMap<>();
+    /**
+     * Discovered addresses, forgotten when this changes the container.
+     */
+    private final Map<Id, ContainerAddress> addresses = new ConcurrentHashMap<>();
     private final TailFactory tailFactory;
-    private final Repo repo;
+    /**
+     * Read again when its configuration changes while watching.
+     */
+    private volatile Repo repo;
 
     private final FileOrchestrator fileOrchestrator;
     private final Set<BuildFlag> buildFlags;
@@ -79,6 +108,11 @@ public class DockerOrchestrator {
     private final DockerfileValidator dockerfileValidator;
     private final DefinitionFilter definitionFilter;
     private final boolean permissionErrorTolerant;
+    private final int parallelism;
+    private final StackState stackState;
+    private final boolean dynamicPorts;
+    private final String namespace;
+    private volatile Definitions definitions;
 
     /**
      * @deprecated Please use builder from now on.
@@ -103,12 +137,25 @@ public class DockerOrchestrator {
                 TailFactory.DEFAULT,
                 new DockerfileValidator(),
                 DefinitionFilter.ANY,
-                false);
+                false,
+                1,
+                null);
     }
 
-    DockerOrchestrator(DockerClient docker, Repo repo, FileOrchestrator fileOrchestrator, Set<BuildFlag> buildFlags, Logger logger, TailFactory tailFactory, DockerfileValidator dockerfileValidator, DefinitionFilter definitionFilter, boolean permissionErrorTolerant) {
-        if (docker == null) {
-            throw new IllegalArgumentException("docker is null");
+    DockerOrchestrator(DockerClient docker, Repo repo, FileOrchestrator fileOrchestrator, Set<BuildFlag> buildFlags, Logger logger, TailFactory tailFactory, DockerfileValidator dockerfileValidator, DefinitionFilter definitionFilter, boolean permissionErrorTolerant, int parallelism, StackState stackState) {
+        this(Collections.singletonList(new Daemon(Daemon.DEFAULT_NAME, docker, null)), PlacementPolicy.ROUND_ROBIN, repo, fileOrchestrator, buildFlags, logger, tailFactory, dockerfileValidator, definitionFilter, permissionErrorTolerant, parallelism, stackState, false, null);
+    }
+
+    /**
+     * @param dynamicPorts Publish ports on host ports chosen by the daemon, rather than those configured.
+     * @param namespace    Scopes containers to a run, maybe null.
+     */
+    DockerOrchestrator(List<Daemon> daemons, PlacementPolicy placementPolicy, Repo repo, FileOrchestrator fileOrchestrator, Set<BuildFlag> buildFlags, Logger logger, TailFactory tailFactory, DockerfileValidator dockerfileValidator, DefinitionFilter definitionFilter, boolean permissionErrorTolerant, int parallelism, StackState stackState, boolean dynamicPorts, String namespace) {
+        if (daemons == null || daemons.isEmpty()) {
+            throw new IllegalArgumentException("daemons is null or empty");
+        }
+        if (placementPolicy == null) {
+            throw new IllegalArgumentException("placementPolicy is null");
         }
         if (repo == null) {
             throw new IllegalArgumentException("repo is null");
@@ -125,8 +172,15 @@ public class DockerOrchestrator {
         if (definitionFilter == null) {
             throw new IllegalArgumentException("definitionFilter is null");
         }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        if (namespace != null && !NAMESPACE_PATTERN.matcher(namespace).matches()) {
+            throw new IllegalArgumentException("namespace \"" + namespace + "\" must be letters, digits, '_', '.' or '-'");
+        }
 
-        this.docker = docker;
+        this.daemons = new ArrayList<>(daemons);
+        this.placementPolicy = placementPolicy;
         this.tailFactory = tailFactory;
         this.repo = repo;
         this.fileOrchestrator = fileOrchestrator;
@@ -135,6 +189,10 @@ public class DockerOrchestrator {
         this.dockerfileValidator = dockerfileValidator;
         this.definitionFilter = definitionFilter;
         this.permissionErrorTolerant = permissionErrorTolerant;
+        this.parallelism = parallelism;
+        this.stackState = stackState;
+        this.dynamicPorts = dynamicPorts;
+        this.namespace = namespace;
 
         for (Plugin plugin : ServiceLoader.load(Plugin.class)) {
             plugins.add(plugin);
@@ -150,52 +208,89 @@ public class DockerOrchestrator {
         return e.getMessage().contains("operation not permitted");
     }
 
-    public void clean() {
-        for (Id id : repo.ids(true)) {
-            if (!inclusive(id)) {
-                continue;
+    /**
+     * The repo compiled into definitions. Compiled on first use, so that invalid configuration (e.g. bad ports) fails
+     * before anything is done to any container.
+     */
+    Definitions definitions() {
+        Definitions definitions = this.definitions;
+        if (definitions == null) {
+            synchronized (this) {
+                definitions = this.definitions;
+                if (definitions == null) {
+                    definitions = Definitions.compile(repo, definitionFilter, dynamicPorts, namespace, logger);
+                    this.definitions = definitions;
+                }
             }
-            stop(id);
-            clean(id);
         }
+        return definitions;
     }
 
-    private boolean inclusive(Id id) {
-        Conf conf = conf(id);
-        if (!definitionFilter.test(id, conf)) {
-            logger.info("Not including " + id + ", filtered out");
-            return false;
+    private Definition definition(Id id) {
+        if (id == null) {
+            throw new IllegalArgumentException("id is null");
         }
-        if (!conf.isEnabled()) {
-            logger.info("Not including " + id + ", not enabled");
-            return false;
+        return definitions().get(id);
+    }
+
+    public void clean() {
+        final List<Definition> definitions = definitions().includedReversed();
+        for (Definition definition : definitions) {
+            clean(definition);
+        }
+        // the bases are shared between namespaces, as the images built FROM them are
+        if (!definitions.isEmpty() && namespace == null) {
+            for (Daemon daemon : daemons) {
+                removeSharedBaseImages(daemon.getDocker());
+            }
+        }
+        try {
+            fileOrchestrator.clean();
+        } catch (IOException e) {
+            throw new OrchestrationException(e);
         }
-        return true;
     }
 
     void clean(final Id id) {
-        if (id == null) {
-            throw new IllegalArgumentException("id is null");
-        }
-        stop(id);
+        clean(definition(id));
+    }
+
+    private void clean(Definition definition) {
+        Id id = definition.getId();
+        stop(definition);
         logger.info("Cleaning " + id);
-        for (Container container : findAllContainers(id)) {
-            logger.info("Removing container " + container.getId());
-            try {
-                removeContainer(container);
-            } catch (DockerException e) {
-                throw new OrchestrationException(e);
-            }
+        addresses.remove(id);
+        for (Daemon daemon : daemons) {
+            clean(definition, daemon.getDocker());
+        }
+        placements.remove(id);
+    }
+
+    private void clean(Definition definition, DockerClient docker) {
+        final List<Container> containers = docker.listContainersCmd().withShowAll(true).exec();
+        final List<Container> removedContainers = findContainers(definition, containers);
+        removeContainers(removedContainers, docker);
+        if (definition.getNamespace() != null) {
+            logger.info("Keeping image of " + definition.getId() + ", as it is shared with other namespaces");
+            return;
         }
         String imageId = null;
         try {
-            imageId = findImageId(id);
+            imageId = findImageId(definition, docker);
         } catch (NotFoundException e) {
-            logger.warn("Image " + id + " not found");
+            logger.warn("Image " + definition.getId() + " not found");
         } catch (DockerException e) {
             throw new OrchestrationException(e);
         }
         if (imageId != null) {
+            // e.g. the container of a namespaced run of the same project
+            for (Container container : containers) {
+                if (!removedContainers.contains(container)
+                        && (container.getImage().equals(definition.getImageName()) || container.getImage().equals(imageId))) {
+                    logger.info("Keeping image " + imageId + ", as container " + asList(container.getNames()) + " still uses it");
+                    return;
+                }
+            }
             logger.info("Removing image " + imageId);
             try {
                 docker.removeImageCmd(imageId).withForce().exec();
@@ -205,19 +300,62 @@ public class DockerOrchestrator {
         }
     }
 
-    private List<Container> findRunningContainers(Id id) {
-        return findContainers(id, false);
+    private void removeSharedBaseImages(DockerClient docker) {
+        final List<Image> images;
+        try {
+            images = docker.listImagesCmd().exec();
+        } catch (DockerException e) {
+            throw new OrchestrationException(e);
+        }
+        for (Image image : images) {
+            for (String tag : image.getRepoTags()) {
+                if (tag.startsWith(SharedBaseImages.REPOSITORY + ":")) {
+                    logger.info("Removing shared base image " + tag);
+                    try {
+                        // not forced, so a base that other images are still built FROM is kept
+                        docker.removeImageCmd(tag).exec();
+                    } catch (DockerException e) {
+                        logger.warn(e.getMessage());
+                    }
+                }
+            }
+        }
     }
 
-    private List<Container> findAllContainers(Id id) {
-        return findContainers(id, true);
+    private void removeContainers(Definition definition, DockerClient docker) {
+        removeContainers(findAllContainers(definition, docker), docker);
     }
 
-    private List<Container> findContainers(Id id, boolean allContainers) {
+    private void removeContainers(List<Container> containers, DockerClient docker) {
+        for (Container container : containers) {
+            logger.info("Removing container " + container.getId());
+            try {
+                removeContainer(container.getId(), docker);
+            } catch (DockerException e) {
+                throw new OrchestrationException(e);
+            }
+        }
+    }
+
+    private List<Container> findRunningContainers(Definition definition, DockerClient docker) {
+        return findContainers(definition, docker, false);
+    }
+
+    private List<Container> findAllContainers(Definition definition, DockerClient docker) {
+        return findContainers(definition, docker, true);
+    }
+
+    private List<Container> findContainers(Definition definition, DockerClient docker, boolean allContainers) {
+        return findContainers(definition, docker.listContainersCmd().withShowAll(allContainers).exec());
+    }
+
+    private static List<Container> findContainers(Definition definition, List<Container> containers) {
         final List<Container> matchingContainers = new ArrayList<>();
-        for (Container container : docker.listContainersCmd().withShowAll(allContainers).exec()) {
-            boolean imageNameMatches = container.getImage().equals(repo.imageName(id));
-            boolean containerNameMatches = asList(container.getNames()).contains(containerName(id));
+        for (Container container : containers) {
+            // images are shared between namespaces, so only the name identifies a namespaced container
+            boolean imageNameMatches = definition.getNamespace() == null && container.getImage().equals(definition.getImageName())
+                    && !isNamespaced(definition, container);
+            boolean containerNameMatches = asList(container.getNames()).contains(definition.getContainerName());
             if (imageNameMatches || containerNameMatches) {
                 matchingContainers.add(container);
             }
@@ -225,84 +363,122 @@ public class DockerOrchestrator {
         return matchingContainers;
     }
 
-    private String containerName(Id id) {
-        ContainerConf container = repo.conf(id).getContainer();
-        return container.hasName() ? container.getName() : repo.defaultContainerName(id);
+    /**
+     * @return If the container is the definition's, but run in a namespace.
+     */
+    private static boolean isNamespaced(Definition definition, Container container) {
+        final String prefix = withoutLeadingSlash(definition.getContainerName()) + "_";
+        for (String name : container.getNames()) {
+            if (withoutLeadingSlash(name).startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    void build(final Id id) {
-        if (id == null) {
-            throw new IllegalArgumentException("id is null");
-        }
+    private static String withoutLeadingSlash(String name) {
+        return name.startsWith("/") ? name.substring(1) : name;
+    }
+
+    /**
+     * Builds the images of the ids, and of those they link to, directly or not, and nothing else.
+     *
+     * @throws IllegalArgumentException If an id, or a definition it links to, is not included.
+     */
+    public void build(Id... ids) {
+        build(definitions().withLinks(idsOf(ids)));
+    }
+
+    private void build(Definition definition) {
+        build(definition, daemon(definition));
+    }
+
+    private void build(Definition definition, Daemon daemon) {
+        forgetStackState();
         try {
-            build(prepare(id), id);
+            build(prepare(definition), definition, daemon);
         } catch (IOException e) {
             throw new OrchestrationException(e);
         }
 
     }
 
-    private void validate(final Id id) {
-        if (id == null) {
-            throw new IllegalArgumentException("id is null");
-        }
+    private void validate(Definition definition) {
         try {
-            dockerfileValidator.validate(repo.src(id));
+            dockerfileValidator.validate(definition.getSrc());
         } catch (IOException e) {
             throw new OrchestrationException(e);
         }
     }
 
-    private File prepare(Id id) throws IOException {
-        if (id == null) {
-            throw new IllegalArgumentException("id is null");
-        }
+    private File prepare(Definition definition) throws IOException {
+        Id id = definition.getId();
         logger.info("Preparing " + id);
-        return fileOrchestrator.prepare(id, repo.src(id), conf(id));
+        return fileOrchestrator.prepare(id, definition.getSrc(), definition.getConf());
     }
 
-    @SuppressWarnings(("DM_DEFAULT_ENCODING"))
-    private void build(File dockerFolder, Id id) {
+    private void build(File dockerFolder, Definition definition, Daemon daemon) {
+        final DockerClient docker = daemon.getDocker();
         try {
+            Id id = definition.getId();
+            String tag = definition.getTag();
+            logger.info("Building " + id + " (" + tag + ")" + (daemons.size() > 1 ? " on " + daemon : ""));
+
+            buildImage(dockerFolder, tag, docker);
+
+            for (String[] otherTag : definition.getOtherTags()) {
+                docker.tagImageCmd(findImageId(definition, docker), otherTag[0], otherTag[1]).withForce().exec();
+            }
+        } catch (DockerException | IOException e) {
+            throw new OrchestrationException(e);
+        }
 
-            String tag = repo.tag(id);
-            logger.info("Building " + id + " (" + tag + ")");
+    }
 
-            final boolean noCache = buildNoCache();
-            logger.info(" - no cache: " + noCache);
+    @SuppressWarnings(("DM_DEFAULT_ENCODING"))
+    private void buildImage(File dockerFolder, String tag, DockerClient docker) throws IOException {
+        final boolean noCache = buildNoCache();
+        logger.info(" - no cache: " + noCache);
 
-            final boolean removeIntermediateImages = buildRemoveIntermediateImages();
-            logger.info(" - remove intermediate images: " + removeIntermediateImages);
+        final boolean removeIntermediateImages = buildRemoveIntermediateImages();
+        logger.info(" - remove intermediate images: " + removeIntermediateImages);
 
-            final boolean quiet = buildQuiet();
-            logger.info(" - quiet: " + quiet);
+        final boolean quiet = buildQuiet();
+        logger.info(" - quiet: " + quiet);
 
-            BuildImageCmd build = docker.buildImageCmd(dockerFolder)
+        final boolean compressContext = buildCompressContext();
+        logger.info(" - compress context: " + compressContext);
+
+        final InputStream context = compressContext ? compressedContext(dockerFolder) : null;
+        try {
+            BuildImageCmd build = (context != null ? docker.buildImageCmd(context) : docker.buildImageCmd(dockerFolder))
                     .withNoCache(noCache)
                     .withRemove(removeIntermediateImages)
                     .withQuiet(quiet)
                     .withTag(tag);
 
             throwExceptionIfThereIsAnError(build.exec());
-
-            for (String otherTag : repo.conf(id).getTags()) {
-                int lastIndexOfColon = otherTag.lastIndexOf(':');
-                if (lastIndexOfColon > -1) {
-                    String repositoryName = otherTag.substring(0, lastIndexOfColon);
-                    String tagName = otherTag.substring(lastIndexOfColon + 1);
-                    docker.tagImageCmd(findImageId(id), repositoryName, tagName).withForce().exec();
-                }
-            }
-        } catch (DockerException | IOException e) {
-            throw new OrchestrationException(e);
+        } finally {
+            IOUtils.closeQuietly(context);
         }
+    }
+
+    private InputStream compressedContext(File dockerFolder) throws IOException {
+        final long start = System.currentTimeMillis();
+        final InputStream tar = new Dockerfile(new File(dockerFolder, "Dockerfile")).parse().buildDockerFolderTar();
+        final InputStream context = CompressedContext.compress(tar, CompressedContext.THRESHOLD);
+        logger.info(" - compressed context in " + (System.currentTimeMillis() - start) + " ms");
+        return context;
+    }
 
+    private String findImageId(Definition definition, DockerClient docker) {
+        return findImageId(definition, docker.listImagesCmd().exec());
     }
 
-    private String findImageId(Id id) {
-        String imageTag = repo.tag(id);
+    private String findImageId(Definition definition, List<Image> images) {
+        Id id = definition.getId();
+        String imageTag = definition.getTag();
         logger.debug("Converting {} ({}) to image id.", id, imageTag);
-        List<Image> images = docker.listImagesCmd().exec();
         for (Image i : images) {
             for (String tag : i.getRepoTags()) {
                 if (tag.startsWith(imageTag)) {
@@ -327,6 +503,10 @@ public class DockerOrchestrator {
         return haveBuildFlag(BuildFlag.REMOVE_INTERMEDIATE_IMAGES);
     }
 
+    private boolean buildCompressContext() {
+        return haveBuildFlag(BuildFlag.COMPRESS_CONTEXT);
+    }
+
     private boolean buildNoCache() {
         return haveBuildFlag(BuildFlag.NO_CACHE);
     }
@@ -335,72 +515,550 @@ public class DockerOrchestrator {
         return buildFlags.contains(flag);
     }
 
-    private void start(final Id id) {
-        if (id == null) {
-            throw new IllegalArgumentException("id is null");
+    /**
+     * Takes a single snapshot of the daemon and works out what needs to be done to get a running container for each
+     * included definition. Nothing is changed.
+     */
+    public Plan plan() {
+        return plan(definitions().included());
+    }
+
+    /**
+     * @param included In start order.
+     */
+    private Plan plan(List<Definition> included) {
+        if (included.isEmpty()) {
+            return new Plan(Collections.<Plan.Step>emptyList());
         }
+        try {
+            final Map<Daemon, Snapshot> snapshots = snapshots();
+            final Map<Id, Daemon> placements = place(included, snapshots);
 
-        logger.info("Starting " + id);
+            // find out how each existing container was created, all at once
+            final Map<Id, Container> existingContainers = new HashMap<>();
+            final Map<Id, Future<InspectContainerResponse>> inspections = new HashMap<>();
+            final ExecutorService executor = newExecutor();
+            try {
+                for (Definition definition : included) {
+                    final DockerClient docker = placements.get(definition.getId()).getDocker();
+                    final Container container = findContainer(definition, snapshots.get(placements.get(definition.getId())).getContainers());
+                    if (container != null) {
+                        existingContainers.put(definition.getId(), container);
+                        inspections.put(definition.getId(), executor.submit(new Callable<InspectContainerResponse>() {
+                            @Override
+                            public InspectContainerResponse call() {
+                                return inspectContainer(container.getId(), docker);
+                            }
+                        }));
+                    }
+                }
 
-        try {
-            if (!imageExists(id)) {
-                logger.info("Image does not exist, so building it");
-                build(id);
+                final List<Plan.Step> steps = new ArrayList<>();
+                // the containers that will have a new address or new host ports, which their dependents were created with
+                final Set<Id> moved = new HashSet<>();
+                for (Definition definition : included) {
+                    final Id id = definition.getId();
+                    final Daemon daemon = placements.get(id);
+                    final Snapshot snapshot = snapshots.get(daemon);
+                    final Container container = existingContainers.get(id);
+                    final List<Id> movedLinkIds = new ArrayList<>();
+                    for (Id linkId : definition.getLinkIds()) {
+                        if (moved.contains(linkId)) {
+                            movedLinkIds.add(linkId);
+                        }
+                    }
+                    final Plan.Step step = step(
+                            definition,
+                            daemon,
+                            findImageId(definition, snapshot.getImages()),
+                            container,
+                            container != null ? get(inspections.get(id)) : null,
+                            snapshot.isRunning(container),
+                            movedLinkIds);
+                    steps.add(step);
+                    if (movesContainer(step)) {
+                        moved.add(id);
+                    }
+                }
+                return new Plan(steps);
+            } finally {
+                executor.shutdownNow();
+            }
+        } catch (DockerException e) {
+            throw new OrchestrationException(e);
+        }
+    }
+
+    private Map<Daemon, Snapshot> snapshots() {
+        final Map<Daemon, Snapshot> snapshots = new HashMap<>();
+        for (Daemon daemon : daemons) {
+            snapshots.put(daemon, Snapshot.of(daemon.getDocker()));
+        }
+        return snapshots;
+    }
+
+    /**
+     * Chooses the daemon for each definition, and remembers it for later commands.
+     */
+    private Map<Id, Daemon> place(List<Definition> definitions, Map<Daemon, Snapshot> snapshots) {
+        final Map<Id, Daemon> placements = new HashMap<>();
+        if (daemons.size() == 1) {
+            for (Definition definition : definitions) {
+                placements.put(definition.getId(), daemons.get(0));
+            }
+        } else {
+            placements.putAll(Placement.place(definitions, daemons, snapshots, placementPolicy));
+            for (Definition definition : definitions) {
+                logger.info("Placing " + definition.getId() + " on " + placements.get(definition.getId()));
             }
+        }
+        this.placements.putAll(placements);
+        return placements;
+    }
+
+    /**
+     * @return The daemon the definition was placed on, placing it if needs be.
+     */
+    private Daemon daemon(Definition definition) {
+        if (daemons.size() == 1) {
+            return daemons.get(0);
+        }
+        final Daemon daemon = placements.get(definition.getId());
+        if (daemon != null) {
+            return daemon;
+        }
+        try {
+            return place(Collections.singletonList(definition), snapshots()).get(definition.getId());
         } catch (DockerException e) {
             throw new OrchestrationException(e);
         }
+    }
 
+    private static <T> T get(Future<T> future) {
         try {
-            Container existingContainer = findContainer(id);
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OrchestrationException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new OrchestrationException(e.getCause());
+        }
+    }
+
+    /**
+     * A new container has a new address, and maybe new host ports. Ports published on any host port are re-published
+     * on new ones whenever a container starts, and links across daemons are made with host ports.
+     */
+    private boolean movesContainer(Plan.Step step) {
+        final List<Plan.Action> actions = step.getActions();
+        return actions.contains(Plan.Action.CREATE) || actions.contains(Plan.Action.START) && (dynamicPorts || daemons.size() > 1);
+    }
+
+    /**
+     * @param movedLinkIds The links whose containers will have a new address or new host ports.
+     */
+    private Plan.Step step(Definition definition, Daemon daemon, String imageId, Container container, InspectContainerResponse inspection, boolean running, List<Id> movedLinkIds) {
+        final List<Plan.Action> actions = new ArrayList<>();
+        final String reason;
+        if (imageId == null) {
+            actions.add(Plan.Action.BUILD);
+        }
+        if (container == null) {
+            reason = "No existing container so creating and starting new one";
+            actions.add(Plan.Action.CREATE);
+            actions.add(Plan.Action.START);
+        } else if (imageId == null || !imageId.equals(inspection.getImageId())) {
+            reason = "Image IDs do not match, removing container and creating new one from image";
+            recreate(actions, running);
+        } else if (!definition.getSpecHash().equals(containerSpecHash(inspection))) {
+            reason = "Container spec changed, removing container and creating new one";
+            recreate(actions, running);
+        } else if (!movedLinkIds.isEmpty()) {
+            reason = "Linked container(s) " + movedLinkIds + " will move, removing container and creating new one";
+            recreate(actions, running);
+        } else if (running) {
+            reason = "Container already running";
+        } else {
+            reason = "Starting existing container " + container.getId();
+            actions.add(Plan.Action.START);
+        }
+        return new Plan.Step(definition, daemon, container != null ? container.getId() : null, actions, reason);
+    }
 
-            if (existingContainer == null) {
-                logger.info("No existing container so creating and starting new one");
-                startContainer(createNewContainer(id));
+    private static void recreate(List<Plan.Action> actions, boolean running) {
+        if (running) {
+            actions.add(Plan.Action.STOP);
+        }
+        actions.add(Plan.Action.REMOVE);
+        actions.add(Plan.Action.CREATE);
+        actions.add(Plan.Action.START);
+    }
 
-            } else if (!isImageIdFromContainerMatchingProvidedImageId(existingContainer.getId(), id)) {
-                logger.info("Image IDs do not match, removing container and creating new one from image");
-                removeContainer(existingContainer);
-                startContainer(createNewContainer(id));
+    private static String containerSpecHash(InspectContainerResponse inspection) {
+        return inspection.getConfig() != null ? Definition.specHash(inspection.getConfig().getEnv()) : null;
+    }
 
-            } else if (isRunning(id)) {
-                logger.info("Container already running");
+    /**
+     * Executes a plan. Images are built concurrently, and each container is started as soon as the containers it
+     * links to are started and healthy.
+     */
+    public void apply(Plan plan) {
+        if (plan == null) {
+            throw new IllegalArgumentException("plan is null");
+        }
+        execute(plan);
+    }
 
-            } else {
-                logger.info("Starting existing container " + existingContainer.getId());
-                startContainer(existingContainer.getId());
+    /**
+     * @return The container of each step.
+     */
+    private Map<Id, String> execute(Plan plan) {
+        final Map<Id, String> baseImages = baseImages(plan);
+        pullBaseImages(plan, baseImages);
+
+        // an image built FROM another definition's image must be built after it
+        final Map<String, String> buildTasksByImage = new HashMap<>();
+        final Set<Id> plannedIds = new HashSet<>();
+        for (Plan.Step step : plan.getSteps()) {
+            plannedIds.add(step.getId());
+            if (step.builds()) {
+                for (String image : images(step.getDefinition())) {
+                    buildTasksByImage.put(image, "build " + step.getId());
+                }
+            }
+        }
+
+        final Map<Id, String> containerIds = new ConcurrentHashMap<>();
+        final Map<String, Runnable> tasks = new LinkedHashMap<>();
+        final Map<String, List<String>> dependencies = new HashMap<>();
+        final Map<Id, File> dockerFolders = new HashMap<>();
+        final Map<String, Runnable> sharedBaseTasks = new HashMap<>();
+        final Map<Id, String> baseTasks = new HashMap<>();
+        if (haveBuildFlag(BuildFlag.SHARED_BASE_IMAGES)) {
+            addSharedBaseImageTasks(plan, baseImages, buildTasksByImage, sharedBaseTasks, dependencies, dockerFolders, baseTasks);
+        }
+        for (final Plan.Step step : plan.getSteps()) {
+            final Definition definition = step.getDefinition();
+            final String startTask = "start " + definition.getId();
+            final List<String> startDependencies = new ArrayList<>();
+            if (step.builds()) {
+                final String buildTask = "build " + definition.getId();
+                final String baseTask = baseTasks.get(definition.getId());
+                // just before the first image built FROM it, so that in start order it follows the image it is FROM
+                if (baseTask != null && !tasks.containsKey(baseTask)) {
+                    tasks.put(baseTask, sharedBaseTasks.get(baseTask));
+                }
+                final File dockerFolder = dockerFolders.get(definition.getId());
+                tasks.put(buildTask, new Runnable() {
+                    @Override
+                    public void run() {
+                        logger.info("Image does not exist, so building it");
+                        if (dockerFolder != null) {
+                            forgetStackState();
+                            build(dockerFolder, definition, step.getDaemon());
+                        } else {
+                            build(definition, step.getDaemon());
+                        }
+                    }
+                });
+                final List<String> buildDependencies = new ArrayList<>();
+                if (baseTask != null) {
+                    buildDependencies.add(baseTask);
+                }
+                final String parentBuildTask = buildTasksByImage.get(baseImages.get(definition.getId()));
+                if (parentBuildTask != null && !parentBuildTask.equals(buildTask)) {
+                    buildDependencies.add(parentBuildTask);
+                }
+                dependencies.put(buildTask, buildDependencies);
+                startDependencies.add(buildTask);
+            }
+            for (Id linkId : definition.getLinkIds()) {
+                if (plannedIds.contains(linkId)) {
+                    startDependencies.add("start " + linkId);
+                } else {
+                    logger.warn(definition.getId() + " links to " + linkId + ", which is not in the plan, so its container must already be running");
+                }
+            }
+            tasks.put(startTask, new Runnable() {
+                @Override
+                public void run() {
+                    containerIds.put(definition.getId(), apply(step));
+                }
+            });
+            dependencies.put(startTask, startDependencies);
+        }
+        if (parallelism == 1) {
+            // one after another, in start order, as each definition's sleep expects
+            String previousTask = null;
+            for (String task : tasks.keySet()) {
+                if (previousTask != null) {
+                    final List<String> taskDependencies = new ArrayList<>();
+                    if (dependencies.containsKey(task)) {
+                        taskDependencies.addAll(dependencies.get(task));
+                    }
+                    taskDependencies.add(previousTask);
+                    dependencies.put(task, taskDependencies);
+                }
+                previousTask = task;
+            }
+        }
+
+        final ExecutorService executor = newExecutor();
+        try {
+            new DependencyExecutor<String>(executor).execute(tasks, dependencies);
+        } finally {
+            executor.shutdownNow();
+        }
+        return containerIds;
+    }
+
+    /**
+     * Prepares the images to be built up front, so that the instructions they have in common can be built once as a
+     * shared base image, before them.
+     *
+     * @param baseImages        The image each image to be built is FROM, and so each base is FROM.
+     * @param buildTasksByImage The task that builds each image built in the plan, so that a base that is FROM one is
+     *                          built after it.
+     * @param tasks             Added to with the task that builds each base.
+     * @param dependencies      Added to with the dependencies of each of those tasks.
+     * @param dockerFolders     Added to with the prepared folder of each image to be built.
+     * @param baseTasks         Added to with the task that builds the base of each image that has one.
+     */
+    private void addSharedBaseImageTasks(Plan plan, Map<Id, String> baseImages, Map<String, String> buildTasksByImage,
+                                         Map<String, Runnable> tasks, Map<String, List<String>> dependencies,
+                                         Map<Id, File> dockerFolders, Map<Id, String> baseTasks) {
+        final Map<Daemon, Map<Id, File>> dockerFoldersByDaemon = new LinkedHashMap<>();
+        try {
+            for (Plan.Step step : plan.getSteps()) {
+                if (step.builds()) {
+                    if (!dockerFoldersByDaemon.containsKey(step.getDaemon())) {
+                        dockerFoldersByDaemon.put(step.getDaemon(), new LinkedHashMap<Id, File>());
+                    }
+                    final File dockerFolder = prepare(step.getDefinition());
+                    dockerFoldersByDaemon.get(step.getDaemon()).put(step.getId(), dockerFolder);
+                    dockerFolders.put(step.getId(), dockerFolder);
+                }
+            }
+            for (Map.Entry<Daemon, Map<Id, File>> entry : dockerFoldersByDaemon.entrySet()) {
+                final DockerClient docker = entry.getKey().getDocker();
+                for (final SharedBaseImages.Base base : SharedBaseImages.extract(entry.getValue())) {
+                    final String baseTask = "build " + base.getTag() + " on " + entry.getKey();
+                    tasks.put(baseTask, new Runnable() {
+                        @Override
+                        public void run() {
+                            logger.info("Building shared base image " + base.getTag() + " for " + base.getDependents());
+                            try {
+                                buildImage(base.getDockerFolder(), base.getTag(), docker);
+                            } catch (DockerException | IOException e) {
+                                throw new OrchestrationException(e);
+                            }
+                        }
+                    });
+                    // the dependents share their FROM
+                    final String parentBuildTask = buildTasksByImage.get(baseImages.get(base.getDependents().get(0)));
+                    dependencies.put(baseTask, parentBuildTask != null
+                            ? Collections.singletonList(parentBuildTask)
+                            : Collections.<String>emptyList());
+                    for (Id id : base.getDependents()) {
+                        baseTasks.put(id, baseTask);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new OrchestrationException(e);
+        }
+    }
+
+    /**
+     * @return The names a FROM can refer to the definition's image by.
+     */
+    private static List<String> images(Definition definition) {
+        return asList(definition.getTag(), definition.getRepository(), definition.getRepository() + ":latest");
+    }
+
+    /**
+     * @return The image each image about to be built is FROM, where it is known before the build.
+     */
+    private static Map<Id, String> baseImages(Plan plan) {
+        final Map<Id, String> baseImages = new HashMap<>();
+        for (Plan.Step step : plan.getSteps()) {
+            if (!step.builds()) {
+                continue;
+            }
+            final String baseImage = baseImage(step.getDefinition());
+            if (baseImage != null) {
+                baseImages.put(step.getId(), baseImage);
             }
+        }
+        return baseImages;
+    }
+
+    /**
+     * @return The image the definition's image is FROM, or null if it is not known before the build.
+     */
+    private static String baseImage(Definition definition) {
+        final String baseImage;
+        try {
+            baseImage = DockerfileValidator.baseImage(definition.getSrc());
+        } catch (IOException e) {
+            throw new OrchestrationException(e);
+        }
+        // properties are not substituted until the build
+        return baseImage != null && !baseImage.contains("${") ? baseImage : null;
+    }
 
-            try (Tail tail = tailFactory.newTail(docker, findContainer(id), logger)) {
+    /**
+     * Pulls the missing base images of the images about to be built, all at once, rather than one after another as
+     * each build reaches its FROM. Base images that are built by a definition, or that cannot be pulled, are left to
+     * the build.
+     */
+    private void pullBaseImages(Plan plan, Map<Id, String> baseImagesById) {
+        final Set<String> builtImages = new HashSet<>();
+        for (Definition definition : definitions().all()) {
+            builtImages.add(definition.getTag());
+            builtImages.add(definition.getRepository());
+        }
+        final Map<Daemon, Set<String>> baseImages = new LinkedHashMap<>();
+        for (Plan.Step step : plan.getSteps()) {
+            final String baseImage = baseImagesById.get(step.getId());
+            if (baseImage == null || baseImage.equals("scratch") || builtImages.contains(baseImage)) {
+                continue;
+            }
+            if (!baseImages.containsKey(step.getDaemon())) {
+                baseImages.put(step.getDaemon(), new LinkedHashSet<String>());
+            }
+            baseImages.get(step.getDaemon()).add(baseImage);
+        }
+        if (baseImages.isEmpty()) {
+            return;
+        }
+
+        final List<Future<?>> pulls = new ArrayList<>();
+        final ExecutorService executor = newExecutor();
+        try {
+            for (Map.Entry<Daemon, Set<String>> entry : baseImages.entrySet()) {
+                final DockerClient docker = entry.getKey().getDocker();
+                final Set<String> missingImages = new LinkedHashSet<>(entry.getValue());
+                try {
+                    for (Image image : docker.listImagesCmd().exec()) {
+                        for (String tag : image.getRepoTags()) {
+                            missingImages.remove(tag);
+                            if (tag.endsWith(":latest")) {
+                                missingImages.remove(tag.substring(0, tag.length() - ":latest".length()));
+                            }
+                        }
+                    }
+                } catch (DockerException e) {
+                    throw new OrchestrationException(e);
+                }
+                for (final String baseImage : missingImages) {
+                    pulls.add(executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            pull(baseImage, docker);
+                        }
+                    }));
+                }
+            }
+            for (Future<?> pull : pulls) {
+                get(pull);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void pull(String image, DockerClient docker) {
+        final int lastIndexOfColon = image.lastIndexOf(':');
+        final boolean hasDigest = image.contains("@");
+        final boolean hasTag = !hasDigest && lastIndexOfColon > image.lastIndexOf('/');
+        logger.info("Pulling base image " + image);
+        try {
+            PullImageCmd pull = docker.pullImageCmd(hasTag ? image.substring(0, lastIndexOfColon) : image);
+            if (!hasDigest) {
+                // without a tag, the daemon pulls every tag
+                pull = pull.withTag(hasTag ? image.substring(lastIndexOfColon + 1) : "latest");
+            }
+            throwExceptionIfThereIsAnError(pull.exec());
+        } catch (DockerException | DockerClientException | IOException | OrchestrationException | UnsupportedOperationException e) {
+            // e.g. a client that cannot pull, or cannot reach the registry
+            logger.warn("Unable to pull base image " + image + ", leaving it to the build: " + e.getMessage());
+        }
+    }
+
+    private String apply(Plan.Step step) {
+        final Definition definition = step.getDefinition();
+        final Conf conf = definition.getConf();
+        final Daemon daemon = step.getDaemon();
+        final DockerClient docker = daemon.getDocker();
+
+        logger.info("Starting " + definition.getId() + (daemons.size() > 1 ? " on " + daemon : ""));
+        logger.info(step.getReason());
+        if (!step.isNoOp()) {
+            addresses.remove(definition.getId());
+        }
+
+        try {
+            String containerId = step.getContainerId();
+            for (Plan.Action action : step.getActions()) {
+                switch (action) {
+                    case STOP:
+                        stopContainer(containerId, docker);
+                        break;
+                    case REMOVE:
+                        removeContainer(containerId, docker);
+                        break;
+                    case CREATE:
+                        containerId = createNewContainer(definition, daemon);
+                        break;
+                    case START:
+                        startContainer(containerId, docker);
+                        break;
+                    default:
+                        // built beforehand
+                }
+            }
+
+            try (Tail tail = tailFactory.newTail(docker, findContainer(definition, docker), logger)) {
                 tail.start();
 
-                for (Plugin plugin : plugins) {
-                    plugin.started(id, conf(id));
+                synchronized (plugins) {
+                    for (Plugin plugin : plugins) {
+                        plugin.started(definition.getId(), conf);
+                    }
                 }
 
-                healthCheck(id);
+                healthCheck(definition);
 
-                sleep(id);
+                sleep(definition);
 
-                tail.setMaxLines(conf(id).getMaxLogLines());
+                tail.setMaxLines(conf.getMaxLogLines());
             }
+            return containerId;
         } catch (DockerException e) {
             throw new OrchestrationException(e);
         }
     }
 
-    private Container findContainer(Id id) {
-        final List<Container> containerIds = findAllContainers(id);
-        return containerIds.isEmpty() ? null : containerIds.get(0);
+    private ExecutorService newExecutor() {
+        return Executors.newFixedThreadPool(parallelism);
+    }
+
+    private Container findContainer(Definition definition, DockerClient docker) {
+        return findContainer(definition, docker.listContainersCmd().withShowAll(true).exec());
     }
 
-    private boolean imageExists(Id id) throws DockerException {
-        return findImageId(id) != null;
+    static Container findContainer(Definition definition, List<Container> containers) {
+        final List<Container> matchingContainers = findContainers(definition, containers);
+        return matchingContainers.isEmpty() ? null : matchingContainers.get(0);
     }
 
-    private void removeContainer(Container existingContainer) {
+    private void removeContainer(String containerId, DockerClient docker) {
         try {
-            docker.removeContainerCmd(existingContainer.getId()).withForce().exec();
+            docker.removeContainerCmd(containerId).withForce().exec();
         } catch (InternalServerErrorException e) {
             if (permissionErrorTolerant && isPermissionError(e)) {
                 logger.warn(String.format("ignoring %s when removing container as we are configured to be permission error tolerant", e));
@@ -410,9 +1068,9 @@ public class DockerOrchestrator {
         }
     }
 
-    private void sleep(Id id) {
+    private void sleep(Definition definition) {
         try {
-            int sleep = conf(id).getSleep();
+            int sleep = definition.getConf().getSleep();
             logger.info(String.format("Sleeping for %dms", sleep));
             Thread.sleep(sleep);
         } catch (InterruptedException e) {
@@ -420,29 +1078,16 @@ public class DockerOrchestrator {
         }
     }
 
-    private boolean isImageIdFromContainerMatchingProvidedImageId(String containerId, final Id id) {
-        try {
-            String containerImageId = lookupImageIdFromContainer(containerId);
-            String imageId = findImageId(id);
-            return containerImageId.equals(imageId);
-        } catch (DockerException e) {
-            logger.error("Unable to find image with id " + id, e);
-            throw new OrchestrationException(e);
-        }
-
-    }
-
-    private String lookupImageIdFromContainer(String containerId) {
+    private InspectContainerResponse inspectContainer(String containerId, DockerClient docker) {
         try {
-            InspectContainerResponse containerInspectResponse = docker.inspectContainerCmd(containerId).exec();
-            return containerInspectResponse.getImageId();
+            return docker.inspectContainerCmd(containerId).exec();
         } catch (DockerException e) {
             logger.error("Unable to inspect container " + containerId, e);
             throw new OrchestrationException(e);
         }
     }
 
-    private void startContainer(String idOfContainerToStart) {
+    private void startContainer(String idOfContainerToStart, DockerClient docker) {
         try {
             docker.startContainerCmd(idOfContainerToStart).exec();
         } catch (DockerException e) {
@@ -451,98 +1096,72 @@ public class DockerOrchestrator {
         }
     }
 
-    private Conf conf(Id id) {
-        return repo.conf(id);
-    }
-
-    private String createNewContainer(Id id) throws DockerException {
+    private String createNewContainer(Definition definition, Daemon daemon) throws DockerException {
+        final DockerClient docker = daemon.getDocker();
 
-        CreateContainerCmd cmd = docker.createContainerCmd(findImageId(id));
+        CreateContainerCmd cmd = docker.createContainerCmd(findImageId(definition, docker));
 
-        Conf conf = conf(id);
+        Conf conf = definition.getConf();
 
         cmd.withPublishAllPorts(true);
         cmd.withPrivileged(conf.isPrivileged());
 
-        Link[] links = links(id);
+        final List<String> env = new ArrayList<>(Arrays.asList(definition.getContainerEnv()));
+        final List<String> extraHosts = new ArrayList<>(Arrays.asList(definition.getExtraHosts()));
+        Link[] links = links(definition, daemon, env, extraHosts);
 
         logger.info(" - links " + conf.getLinks());
         cmd.withLinks(links);
 
-        List<PortBinding> portBindings = new ArrayList<>();
-        for (String e : conf.getPorts()) {
-
-            final String[] split = e.split(" ");
-
-            assert split.length == 1 || split.length == 2;
-
-            final int hostPort = Integer.parseInt(split[0]);
-            final int containerPort = split.length == 2 ? Integer.parseInt(split[1]) : hostPort;
-
-            logger.info(" - port " + hostPort + "->" + containerPort);
-            portBindings.add(new PortBinding(new Ports.Binding(hostPort),
-                    new ExposedPort(containerPort, InternetProtocol.TCP)));
+        PortBinding[] portBindings = definition.getPortBindings();
+        for (PortBinding portBinding : portBindings) {
+            final Integer hostPort = portBinding.getBinding().getHostPort();
+            logger.info(" - port " + (hostPort != null ? hostPort : "(dynamic)") + "->" + portBinding.getExposedPort().getPort());
         }
-        cmd.withPortBindings(portBindings.toArray(new PortBinding[portBindings.size()]));
+        cmd.withPortBindings(portBindings);
 
         logger.info(" - volumes " + conf.getVolumes());
 
-        final List<Bind> binds = new ArrayList<>();
-        for (Map.Entry<String, String> entry : conf.getVolumes().entrySet()) {
-            String volumePath = entry.getKey();
-            String hostPath = entry.getValue();
-            File file = new File(hostPath);
-            String path = file.getAbsolutePath();
-            logger.info(" - volumes " + volumePath + " <- " + path);
-            binds.add(new Bind(path, new Volume(volumePath)));
+        Bind[] binds = definition.getBinds();
+        for (Bind bind : binds) {
+            logger.info(" - volumes " + bind.getVolume().getPath() + " <- " + bind.getPath());
         }
 
-        cmd.withBinds(binds.toArray(new Bind[binds.size()]));
+        cmd.withBinds(binds);
 
-        cmd.withName(repo.containerName(id));
+        cmd.withName(definition.getContainerName());
         logger.info(" - env " + conf.getEnv());
-        cmd.withEnv(asEnvList(conf.getEnv()));
+        cmd.withEnv(env.toArray(new String[env.size()]));
 
-        if (!conf.getExtraHosts().isEmpty()) {
-            List<String> extraHosts = conf.getExtraHosts();
+        if (!extraHosts.isEmpty()) {
             cmd.withExtraHosts(extraHosts.toArray(new String[extraHosts.size()]));
-            logger.info(" - extra hosts " + conf.getExtraHosts());
+            logger.info(" - extra hosts " + extraHosts);
         }
 
         return cmd.exec().getId();
     }
 
-    /**
-     * Converts String to String map to list of
-     * key=value strings.
-     */
-    private String[] asEnvList(Map<String, String> env) {
-        ArrayList<String> list = new ArrayList<>();
-        for (Map.Entry<String, String> entry : env.entrySet()) {
-            list.add(entry.getKey() + "=" + entry.getValue());
-        }
-        return list.toArray(new String[list.size()]);
-    }
-
-    private boolean isRunning(Id id) {
-        if (id == null) {
-            throw new IllegalArgumentException("id is null");
-        }
+    private boolean isRunning(Definition definition) {
         boolean running = false;
-        final Container candidate = findContainer(id);
-        for (Container container : docker.listContainersCmd().withShowAll(false).exec()) {
-            running |= candidate != null && candidate.getId().equals(container.getId());
+        for (Daemon daemon : daemons) {
+            final DockerClient docker = daemon.getDocker();
+            final Container candidate = findContainer(definition, docker);
+            for (Container container : docker.listContainersCmd().withShowAll(false).exec()) {
+                running |= candidate != null && candidate.getId().equals(container.getId());
+            }
         }
         return running;
     }
 
-    private void healthCheck(Id id) {
-        final HealthChecks healthChecks = conf(id).getHealthChecks();
+    private void healthCheck(Definition definition) {
+        final Id id = definition.getId();
+        final HealthChecks healthChecks = definition.getConf().getHealthChecks();
         for (Ping ping : healthChecks.getPings()) {
+            final String url = healthCheckUrl(definition, ping.getUrl().toString());
             URI uri;
-            if (ping.getUrl().toString().contains(CONTAINER_IP_PATTERN)) {
+            if (!url.equals(ping.getUrl().toString())) {
                 try {
-                    uri = new URI(ping.getUrl().toString().replace(CONTAINER_IP_PATTERN, getIPAddresses().get(id.toString())));
+                    uri = new URI(url);
                 } catch (URISyntaxException e) {
                     throw new OrchestrationException("Bad health check URI syntax: " + e.getMessage() + ", input: " + e.getInput() + ", index:" + e.getIndex());
                 }
@@ -557,110 +1176,511 @@ public class DockerOrchestrator {
         }
     }
 
-    private Link[] links(Id id) {
-        final List<com.alexecollins.docker.orchestration.model.Link> links = conf(id).getLinks();
-        final Link[] out = new Link[links.size()];
-        for (int i = 0; i < links.size(); i++) {
-            com.alexecollins.docker.orchestration.model.Link link = links.get(i);
-            final String name = com.alexecollins.docker.orchestration.util.Links.name(findContainer(link.getId()).getNames());
+    /**
+     * Replaces {@code __CONTAINER.IP__} with the container's IP address, and {@code __HOST.PORT.<port>__} with the host
+     * port that the container's TCP port is published on.
+     */
+    private String healthCheckUrl(Definition definition, String url) {
+        if (url.contains(CONTAINER_IP_PATTERN)) {
+            url = url.replace(CONTAINER_IP_PATTERN, address(definition).getIpAddress());
+        }
+        final Matcher matcher = HOST_PORT_PATTERN.matcher(url);
+        final StringBuffer out = new StringBuffer();
+        while (matcher.find()) {
+            final int port = Integer.parseInt(matcher.group(1));
+            final Integer hostPort = address(definition).getHostPort(port);
+            if (hostPort == null) {
+                throw new OrchestrationException("port " + port + " of " + definition.getId() + " is not published, so cannot be used in " + url);
+            }
+            matcher.appendReplacement(out, hostPort.toString());
+        }
+        matcher.appendTail(out);
+        return out.toString();
+    }
+
+    /**
+     * Links to containers on the same daemon are Docker links. Links to containers on other daemons are made with
+     * environment variables and extra hosts, via the ports the linked container publishes.
+     *
+     * @param env        Added to for links to other daemons.
+     * @param extraHosts Added to for links to other daemons.
+     */
+    private Link[] links(Definition definition, Daemon daemon, List<String> env, List<String> extraHosts) {
+        final List<Link> out = new ArrayList<>();
+        for (com.alexecollins.docker.orchestration.model.Link link : definition.getLinks()) {
+            final Definition linked = definition(link.getId());
+            final Daemon linkedDaemon = daemon(linked);
+            final Container container = findContainer(linked, linkedDaemon.getDocker());
+            if (container == null) {
+                throw new OrchestrationException("no container for " + link.getId() + ", linked to by " + definition.getId());
+            }
             final String alias = link.getAlias();
-            out[i] = new Link(name, alias);
+            if (linkedDaemon == daemon) {
+                out.add(new Link(com.alexecollins.docker.orchestration.util.Links.name(container.getNames()), alias));
+            } else {
+                final String address = address(linkedDaemon);
+                logger.info(" - link " + link + " via " + linkedDaemon + " (" + address + ")");
+                env.addAll(Placement.linkEnv(alias, address, inspectContainer(container.getId(), linkedDaemon.getDocker()).getNetworkSettings().getPorts()));
+                extraHosts.add(alias + ":" + address);
+            }
         }
-        return out;
+        return out.toArray(new Link[out.size()]);
     }
 
-    private void stop(final Id id) {
-        if (id == null) {
-            throw new IllegalArgumentException("id is null");
+    private static String address(Daemon daemon) {
+        if (daemon.getHost() == null) {
+            throw new OrchestrationException("the host of daemon " + daemon + " is needed to link to its containers from other daemons");
+        }
+        try {
+            return InetAddress.getByName(daemon.getHost()).getHostAddress();
+        } catch (UnknownHostException e) {
+            throw new OrchestrationException(e);
         }
+    }
+
+    private void stop(Definition definition) {
+        Id id = definition.getId();
+        forgetStackState();
+        addresses.remove(id);
 
         logger.info("Stopping " + id);
 
-        for (Container container : findRunningContainers(id)) {
-            logger.info("Stopping container " + Arrays.toString(container.getNames()));
-            try {
-                docker.stopContainerCmd(container.getId()).withTimeout(1).exec();
-            } catch (DockerException e) {
-                throw new OrchestrationException(e);
+        for (Daemon daemon : daemons) {
+            for (Container container : findRunningContainers(definition, daemon.getDocker())) {
+                logger.info("Stopping container " + Arrays.toString(container.getNames()));
+                stopContainer(container.getId(), daemon.getDocker());
             }
         }
-        for (Plugin plugin : plugins) {
-            plugin.stopped(id, conf(id));
+        synchronized (plugins) {
+            for (Plugin plugin : plugins) {
+                plugin.stopped(id, definition.getConf());
+            }
+        }
+    }
+
+    private void stopContainer(String containerId, DockerClient docker) {
+        try {
+            docker.stopContainerCmd(containerId).withTimeout(1).exec();
+        } catch (DockerException e) {
+            throw new OrchestrationException(e);
         }
     }
 
     public void build() {
-        for (Id id : ids()) {
-            if (!inclusive(id)) {
-                continue;
+        build(definitions().included());
+    }
+
+    private void build(List<Definition> included) {
+        if (daemons.size() > 1 && !included.isEmpty()) {
+            try {
+                place(included, snapshots());
+            } catch (DockerException e) {
+                throw new OrchestrationException(e);
             }
-            build(id);
+        }
+        for (Definition definition : included) {
+            build(definition);
         }
     }
 
+    /**
+     * Validates every included Dockerfile concurrently, and reports every invalid one.
+     */
     public void validate() {
-        Exception innerException = null;
-        for (Id id : ids()) {
-            if (!inclusive(id)) {
-                continue;
+        final List<Definition> included = definitions().included();
+        final Map<Id, Future<?>> validations = new LinkedHashMap<>();
+        final Map<Id, Exception> errors = new LinkedHashMap<>();
+        final ExecutorService executor = newExecutor();
+        try {
+            for (final Definition definition : included) {
+                validations.put(definition.getId(), executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        validate(definition);
+                    }
+                }));
             }
-            try {
-                validate(id);
-            } catch (Exception e) {
-                innerException = e;
+            // collect in order, so that every invalid file is reported, not just the first
+            for (Map.Entry<Id, Future<?>> entry : validations.entrySet()) {
+                try {
+                    get(entry.getValue());
+                } catch (Exception e) {
+                    errors.put(entry.getKey(), e);
+                }
             }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (!errors.isEmpty()) {
+            StringBuilder message = new StringBuilder("failed to validate ").append(errors.size()).append(" Dockerfile(s)");
+            for (Map.Entry<Id, Exception> error : errors.entrySet()) {
+                message.append("\n - ").append(error.getKey()).append(": ").append(error.getValue().getMessage());
+            }
+            OrchestrationException exception = new OrchestrationException(message.toString());
+            for (Exception e : errors.values()) {
+                exception.addSuppressed(e);
+            }
+            throw exception;
         }
-        if (innerException != null)
-            throw new OrchestrationException(innerException);
     }
 
     public void start() {
-        for (Id id : ids()) {
-            if (!inclusive(id)) {
-                continue;
+        final List<Definition> included = definitions().included();
+        if (stackState == null || included.isEmpty()) {
+            apply(plan());
+            return;
+        }
+        final String fingerprint = StackState.fingerprint(included);
+        if (isStackRunning(fingerprint)) {
+            logger.info("Stack is unchanged and running, so not starting it");
+            return;
+        }
+        final Map<Id, String> containerIds = execute(plan());
+        stackState.write(fingerprint, containerIds.values());
+    }
+
+    /**
+     * Starts the containers of the ids, and of those they link to, directly or not, and nothing else. Containers are
+     * re-created as {@link #start()} would re-create them.
+     *
+     * @throws IllegalArgumentException If an id, or a definition it links to, is not included.
+     */
+    public void start(Id... ids) {
+        execute(plan(definitions().withLinks(idsOf(ids))));
+    }
+
+    private boolean isStackRunning(String fingerprint) {
+        final Set<String> containerIds = stackState.read(fingerprint);
+        if (containerIds == null) {
+            return false;
+        }
+        final Set<String> runningContainerIds = new HashSet<>();
+        try {
+            for (Daemon daemon : daemons) {
+                for (Container container : daemon.getDocker().listContainersCmd().withShowAll(false).exec()) {
+                    runningContainerIds.add(container.getId());
+                }
             }
-            start(id);
+        } catch (DockerException e) {
+            throw new OrchestrationException(e);
+        }
+        return runningContainerIds.containsAll(containerIds);
+    }
+
+    private void forgetStackState() {
+        if (stackState != null) {
+            stackState.forget();
         }
     }
 
     public Map<String, String> getIPAddresses() {
+        final Map<Id, ContainerAddress> discovered = getAddresses();
         Map<String, String> idToIpAddressMap = new HashMap<>();
-        for (Id id : ids()) {
-            Conf conf = repo.conf(id);
-            if (inclusive(id) && conf.isExposeContainerIp()) {
-                String containerName = repo.containerName(id);
-                InspectContainerResponse containerInspectResponse = docker.inspectContainerCmd(containerName).exec();
-                idToIpAddressMap.put(id.toString(), containerInspectResponse.getNetworkSettings().getIpAddress());
+        for (Definition definition : definitions().included()) {
+            if (definition.getConf().isExposeContainerIp()) {
+                final ContainerAddress address = discovered.get(definition.getId());
+                if (address == null) {
+                    throw new OrchestrationException("no container for " + definition.getId());
+                }
+                idToIpAddressMap.put(definition.getId().toString(), address.getIpAddress());
             }
         }
         return idToIpAddressMap;
     }
 
-    public void stop() {
-        for (Id id : repo.ids(true)) {
-            if (!inclusive(id)) {
-                continue;
+    /**
+     * The host ports of every published container port, for use in property substitution, e.g. by a build tool. The
+     * property {@code <id>.host.port.<port>} is the host port that the container's TCP port is published on.
+     */
+    public Properties getHostPortProperties() {
+        final Properties properties = new Properties();
+        for (Map.Entry<Id, ContainerAddress> entry : getAddresses().entrySet()) {
+            for (Map.Entry<ExposedPort, Integer> hostPort : entry.getValue().getHostPorts().entrySet()) {
+                if (hostPort.getKey().getProtocol() == InternetProtocol.TCP) {
+                    properties.setProperty(entry.getKey() + ".host.port." + hostPort.getKey().getPort(), hostPort.getValue().toString());
+                }
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Inspects the containers not already inspected concurrently. Addresses are re-used until this orchestrator starts,
+     * stops or removes the container.
+     *
+     * @return The address of the container of each included definition, if it has one.
+     */
+    public Map<Id, ContainerAddress> getAddresses() {
+        final Map<Id, Future<ContainerAddress>> discoveries = new LinkedHashMap<>();
+        ExecutorService executor = null;
+        try {
+            for (final Definition definition : definitions().included()) {
+                if (addresses.containsKey(definition.getId())) {
+                    continue;
+                }
+                if (executor == null) {
+                    executor = newExecutor();
+                }
+                discoveries.put(definition.getId(), executor.submit(new Callable<ContainerAddress>() {
+                    @Override
+                    public ContainerAddress call() {
+                        return discover(definition);
+                    }
+                }));
+            }
+            for (Map.Entry<Id, Future<ContainerAddress>> entry : discoveries.entrySet()) {
+                final ContainerAddress address = get(entry.getValue());
+                if (address != null) {
+                    addresses.put(entry.getKey(), address);
+                }
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+        final Map<Id, ContainerAddress> out = new LinkedHashMap<>();
+        for (Definition definition : definitions().included()) {
+            final ContainerAddress address = addresses.get(definition.getId());
+            if (address != null) {
+                out.put(definition.getId(), address);
+            }
+        }
+        return Collections.unmodifiableMap(out);
+    }
+
+    /**
+     * @return The address of the definition's container, which must exist.
+     */
+    private ContainerAddress address(Definition definition) {
+        ContainerAddress address = addresses.get(definition.getId());
+        if (address == null) {
+            address = discover(definition);
+            if (address == null) {
+                throw new OrchestrationException("no container for " + definition.getId());
+            }
+            addresses.put(definition.getId(), address);
+        }
+        return address;
+    }
+
+    /**
+     * @return Null if there is no container.
+     */
+    private ContainerAddress discover(Definition definition) {
+        try {
+            return ContainerAddress.of(daemon(definition).getDocker().inspectContainerCmd(definition.getContainerName()).exec());
+        } catch (NotFoundException e) {
+            return null;
+        } catch (DockerException e) {
+            throw new OrchestrationException(e);
+        }
+    }
+
+    /**
+     * Starts the stack, and then watches the source folder of each included definition and the files it adds. When they
+     * change, rebuilds and restarts the definitions they belong to, and those that link to them, leaving the rest of the
+     * stack running. Returns once the thread is interrupted.
+     * <p/>
+     * When docker.yml or a conf.yml changes, the configuration is read again before restarting, and the files it now
+     * adds are watched too. Definitions added to the configuration are not started until the next start.
+     */
+    public void watch() {
+        watch(DEFAULT_WATCH_QUIET_MILLIS);
+    }
+
+    /**
+     * @param quietMillis How long to wait for files to stop changing before restarting.
+     */
+    public void watch(long quietMillis) {
+        start();
+        try (Watcher watcher = new Watcher()) {
+            watch(watcher);
+            logger.info("Watching for changes");
+            while (!Thread.currentThread().isInterrupted()) {
+                final Set<Path> changedPaths = new HashSet<>();
+                final Set<Id> changed = watcher.take(quietMillis, changedPaths);
+                try {
+                    if (reloadIfConfChanged(changedPaths)) {
+                        watch(watcher);
+                    }
+                    restart(changed);
+                } catch (OrchestrationException | DockerException e) {
+                    // keep watching, so the next change can fix it
+                    logger.error("Failed to restart " + changed + ": " + e.getMessage(), e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new OrchestrationException(e);
+        }
+    }
+
+    private void watch(Watcher watcher) throws IOException {
+        for (Definition definition : definitions().included()) {
+            watcher.watch(definition.getId(), definition.getSrc().toPath());
+            for (File file : repo.confFiles(definition.getId())) {
+                watcher.watch(definition.getId(), file.toPath());
+            }
+            for (File file : fileOrchestrator.addedFiles(definition.getConf())) {
+                watcher.watch(definition.getId(), file.toPath());
             }
-            stop(id);
         }
     }
 
+    /**
+     * Reads the repo again if any of its configuration files are amongst the paths. If the configuration is invalid,
+     * the current one is kept.
+     *
+     * @return If the configuration was read again.
+     */
+    boolean reloadIfConfChanged(Collection<Path> changedPaths) {
+        final Set<Path> confPaths = new HashSet<>();
+        for (Id id : definitions().ids()) {
+            for (File file : repo.confFiles(id)) {
+                confPaths.add(file.toPath().toAbsolutePath().normalize());
+            }
+        }
+        if (Collections.disjoint(confPaths, changedPaths)) {
+            return false;
+        }
+        logger.info("Configuration changed, so reading it again");
+        final Repo repo = this.repo.reload();
+        final Definitions definitions = Definitions.compile(repo, definitionFilter, dynamicPorts, namespace, logger);
+        synchronized (this) {
+            this.repo = repo;
+            this.definitions = definitions;
+        }
+        return true;
+    }
+
+    /**
+     * Rebuilds the changed definitions, and those whose images are FROM their images, directly or not, then re-creates
+     * their containers and those of the definitions that link to them.
+     */
+    void restart(Collection<Id> changedIds) {
+        // not those no longer in the configuration
+        final List<Id> changed = new ArrayList<>();
+        for (Definition definition : definitions().included()) {
+            if (changedIds.contains(definition.getId())) {
+                changed.add(definition.getId());
+            }
+        }
+        final Map<Id, Id> parents = parents();
+        final Set<Id> rebuilt = new LinkedHashSet<>(changed);
+        boolean added = true;
+        while (added) {
+            added = false;
+            for (Map.Entry<Id, Id> parent : parents.entrySet()) {
+                // the child still has the old layers of its parent
+                if (rebuilt.contains(parent.getValue()) && rebuilt.add(parent.getKey())) {
+                    added = true;
+                }
+            }
+        }
+        final List<Definition> affected = definitions().withDependents(rebuilt);
+        if (affected.isEmpty()) {
+            return;
+        }
+        final List<Id> affectedIds = new ArrayList<>();
+        for (Definition definition : affected) {
+            affectedIds.add(definition.getId());
+        }
+        logger.info("Files of " + changed + " changed, so restarting " + affectedIds);
+        // built first, so the old containers keep running if the build fails
+        final Set<Id> built = new HashSet<>();
+        for (Id id : rebuilt) {
+            rebuild(id, parents, rebuilt, built);
+        }
+        for (int i = affected.size() - 1; i >= 0; i--) {
+            final Definition definition = affected.get(i);
+            stop(definition);
+            removeContainers(definition, daemon(definition).getDocker());
+        }
+        execute(plan(affected));
+    }
+
+    /**
+     * @return The included definition each included definition's image is FROM, where it is FROM one.
+     */
+    private Map<Id, Id> parents() {
+        final Map<String, Id> idsByImage = new HashMap<>();
+        for (Definition definition : definitions().included()) {
+            for (String image : images(definition)) {
+                idsByImage.put(image, definition.getId());
+            }
+        }
+        final Map<Id, Id> parents = new LinkedHashMap<>();
+        for (Definition definition : definitions().included()) {
+            final Id parent = idsByImage.get(baseImage(definition));
+            if (parent != null && !parent.equals(definition.getId())) {
+                parents.put(definition.getId(), parent);
+            }
+        }
+        return parents;
+    }
+
+    /**
+     * Builds the image of the id, after its parent's if that is to be rebuilt too.
+     */
+    private void rebuild(Id id, Map<Id, Id> parents, Set<Id> rebuilt, Set<Id> built) {
+        if (!built.add(id)) {
+            return;
+        }
+        final Id parent = parents.get(id);
+        if (parent != null && rebuilt.contains(parent)) {
+            rebuild(parent, parents, rebuilt, built);
+        }
+        build(definition(id));
+    }
+
+    public void stop() {
+        for (Definition definition : definitions().includedReversed()) {
+            stop(definition);
+        }
+    }
+
+    /**
+     * Stops the containers of the ids, and of those that link to them, directly or not, and nothing else.
+     *
+     * @throws IllegalArgumentException If an id is not included.
+     */
+    public void stop(Id... ids) {
+        final List<Definition> affected = definitions().withDependents(idsOf(ids));
+        for (int i = affected.size() - 1; i >= 0; i--) {
+            stop(affected.get(i));
+        }
+    }
+
+    /**
+     * @return The ids, each of which must be defined.
+     */
+    private List<Id> idsOf(Id[] ids) {
+        if (ids == null) {
+            throw new IllegalArgumentException("ids is null");
+        }
+        for (Id id : ids) {
+            definition(id);
+        }
+        return asList(ids);
+    }
+
     public List<Id> ids() {
-        return repo.ids(false);
+        return definitions().ids();
     }
 
     public void push() {
-        for (Id id : ids()) {
-            if (!inclusive(id)) {
-                continue;
-            }
-            push(id);
+        for (Definition definition : definitions().included()) {
+            push(definition);
         }
     }
 
-    private void push(Id id) {
+    private void push(Definition definition) {
+        Id id = definition.getId();
         try {
-            PushImageCmd pushImageCmd = docker.pushImageCmd(repo(id));
+            PushImageCmd pushImageCmd = daemon(definition).getDocker().pushImageCmd(definition.getRepository());
             logger.info("Pushing " + id + " (" + pushImageCmd.getName() + ")");
             InputStream inputStream = pushImageCmd.exec();
             throwExceptionIfThereIsAnError(inputStream);
@@ -669,10 +1689,6 @@ public class DockerOrchestrator {
         }
     }
 
-    private String repo(Id id) {
-        return repo.tag(id).replaceFirst(":[^:]*$", "");
-    }
-
     private void throwExceptionIfThereIsAnError(InputStream exec) throws IOException {
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(exec))) {
             String l;
@@ -691,8 +1707,8 @@ public class DockerOrchestrator {
     }
 
     public boolean isRunning() {
-        for (Id id : ids()) {
-            if (!isRunning(id)) {
+        for (Definition definition : definitions().all()) {
+            if (!isRunning(definition)) {
                 return false;
             }
         }
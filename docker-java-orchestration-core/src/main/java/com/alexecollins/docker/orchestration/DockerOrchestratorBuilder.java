@@ -8,14 +8,16 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 
 public class DockerOrchestratorBuilder {
-    private final DockerfileValidator dockerfileValidator = new DockerfileValidator();
     private final TailFactory tailFactory = TailFactory.DEFAULT;
     private DockerClient docker;
+    private DockerClientFactory dockerClientFactory;
     private File src;
     private File workDir;
     private File rootDir;
@@ -27,6 +29,18 @@ public class DockerOrchestratorBuilder {
     private Logger logger = LoggerFactory.getLogger(DockerOrchestrator.class);
     private DefinitionFilter definitionFilter = DefinitionFilter.ANY;
     private boolean permissionErrorTolerant;
+    private File confCacheFile;
+    private File stackStateFile;
+    private File validationCacheFile;
+    private int maxHeavyCommands;
+    private int maxLightCommands;
+    private boolean coalesceReads;
+    private long coalesceReadsTtlMillis;
+    private int parallelism = 1;
+    private final List<Daemon> daemons = new ArrayList<>();
+    private PlacementPolicy placementPolicy = PlacementPolicy.ROUND_ROBIN;
+    private boolean dynamicPorts;
+    private String namespace;
 
     DockerOrchestratorBuilder() {
     }
@@ -36,6 +50,43 @@ public class DockerOrchestratorBuilder {
         return this;
     }
 
+    /**
+     * Have the orchestrator create its own client, with a connection pool sized to its parallelism. Ignored if a
+     * client is given with {@link #docker(DockerClient)}. Cannot be used with {@link #daemon(String, DockerClient, String)},
+     * as each daemon comes with its own client.
+     */
+    public DockerOrchestratorBuilder dockerClientFactory(DockerClientFactory dockerClientFactory) {
+        this.dockerClientFactory = dockerClientFactory;
+        return this;
+    }
+
+    /**
+     * Add a daemon to place containers on. Any client given with {@link #docker(DockerClient)} is the first daemon,
+     * named "default".
+     *
+     * @param name   The name that {@link com.alexecollins.docker.orchestration.model.Conf#getDaemon()} pins to. Unique.
+     * @param docker A client for the daemon.
+     * @param host   The address of the daemon's host, that containers on other daemons reach its published ports at.
+     * @see #placementPolicy(PlacementPolicy)
+     */
+    public DockerOrchestratorBuilder daemon(String name, DockerClient docker, String host) {
+        for (Daemon daemon : daemons) {
+            if (daemon.getName().equals(name)) {
+                throw new IllegalArgumentException("there is already a daemon named " + name);
+            }
+        }
+        this.daemons.add(new Daemon(name, docker, host));
+        return this;
+    }
+
+    /**
+     * @param placementPolicy How to choose a daemon for each container, when there is more than one. Defaults to round-robin.
+     */
+    public DockerOrchestratorBuilder placementPolicy(PlacementPolicy placementPolicy) {
+        this.placementPolicy = placementPolicy;
+        return this;
+    }
+
     public DockerOrchestratorBuilder src(File src) {
         this.src = src;
         return this;
@@ -91,16 +142,141 @@ public class DockerOrchestratorBuilder {
         return this;
     }
 
+    /**
+     * @param confCacheFile File to cache the parsed configuration in between builds. Null to disable caching.
+     */
+    public DockerOrchestratorBuilder confCacheFile(File confCacheFile) {
+        this.confCacheFile = confCacheFile;
+        return this;
+    }
+
+    /**
+     * @param stackStateFile File to record the started stack in, so that {@link DockerOrchestrator#start()} returns
+     *                       straight away if nothing has changed and the stack is still running. Null to disable.
+     */
+    public DockerOrchestratorBuilder stackStateFile(File stackStateFile) {
+        this.stackStateFile = stackStateFile;
+        return this;
+    }
+
+    /**
+     * Publish each container's ports on host ports chosen by the daemon, rather than those configured, so that several
+     * copies of a stack can run on one host. The ports chosen are available from
+     * {@link DockerOrchestrator#getAddresses()}, and as {@code __HOST.PORT.<port>__} in health check URLs.
+     */
+    public DockerOrchestratorBuilder dynamicPorts(boolean dynamicPorts) {
+        this.dynamicPorts = dynamicPorts;
+        return this;
+    }
+
+    /**
+     * @param namespace Scopes the containers to a run, e.g. a test shard, so that several runs of the same project can
+     *                  share a daemon. Containers are named with the namespace as a suffix and only containers with
+     *                  that name are found. Images are shared, so are not removed by {@link DockerOrchestrator#clean()}.
+     *                  Null for no namespace.
+     */
+    public DockerOrchestratorBuilder namespace(String namespace) {
+        this.namespace = namespace;
+        return this;
+    }
+
+    /**
+     * @param validationCacheFile File to record the Dockerfiles that passed validation in, so that unchanged
+     *                            Dockerfiles are not validated again. Null to disable.
+     */
+    public DockerOrchestratorBuilder validationCacheFile(File validationCacheFile) {
+        this.validationCacheFile = validationCacheFile;
+        return this;
+    }
+
+    /**
+     * @param parallelism How many images to build, or containers to start, at once. Defaults to 1, which builds and
+     *                    starts in the order of {@code docker.yml}. Above 1, containers that do not link to each other
+     *                    may start in any order.
+     */
+    public DockerOrchestratorBuilder parallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Make identical concurrent reads (e.g. listing containers) share one call to the daemon.
+     *
+     * @param ttlMillis How long to re-use results for, zero to only share calls that are in flight.
+     * @see CoalescingDockerClient
+     */
+    public DockerOrchestratorBuilder coalesceReads(long ttlMillis) {
+        this.coalesceReads = true;
+        this.coalesceReadsTtlMillis = ttlMillis;
+        return this;
+    }
+
+    /**
+     * Adaptively limit how many commands are sent to the daemon at once.
+     *
+     * @param maxHeavy The most builds, pushes and pulls to run at once, at least 1.
+     * @param maxLight The most other commands to run at once, at least 1.
+     * @see AdaptiveLimitingDockerClient
+     */
+    public DockerOrchestratorBuilder adaptiveConcurrency(int maxHeavy, int maxLight) {
+        if (maxHeavy < 1) {
+            throw new IllegalArgumentException("maxHeavy must be at least 1");
+        }
+        if (maxLight < 1) {
+            throw new IllegalArgumentException("maxLight must be at least 1");
+        }
+        this.maxHeavyCommands = maxHeavy;
+        this.maxLightCommands = maxLight;
+        return this;
+    }
+
+    private List<Daemon> daemons() {
+        final List<Daemon> daemons = new ArrayList<>();
+        final DockerClient client = docker != null || dockerClientFactory == null ? docker : dockerClientFactory.create(parallelism);
+        if (client != null) {
+            daemons.add(new Daemon(Daemon.DEFAULT_NAME, decorate(client), null));
+        }
+        for (Daemon daemon : this.daemons) {
+            if (client != null && daemon.getName().equals(Daemon.DEFAULT_NAME)) {
+                throw new IllegalArgumentException("the client given with docker(DockerClient) is the daemon named " + Daemon.DEFAULT_NAME);
+            }
+            daemons.add(new Daemon(daemon.getName(), decorate(daemon.getDocker()), daemon.getHost()));
+        }
+        return daemons;
+    }
+
+    private DockerClient decorate(DockerClient client) {
+        if (maxHeavyCommands > 0 || maxLightCommands > 0) {
+            client = new AdaptiveLimitingDockerClient(client, maxHeavyCommands, maxLightCommands).getDockerClient();
+        }
+        // outermost, so that shared reads only take one permit
+        if (coalesceReads) {
+            client = new CoalescingDockerClient(client, coalesceReadsTtlMillis).getDockerClient();
+        }
+        return client;
+    }
+
     public DockerOrchestrator build() {
-        return new DockerOrchestrator(
-                docker,
-                new Repo(user, project, src, properties),
+        if (dockerClientFactory != null && !daemons.isEmpty()) {
+            throw new IllegalStateException("a client factory cannot be used with daemons, which have their own clients");
+        }
+        DockerOrchestrator orchestrator = new DockerOrchestrator(
+                daemons(),
+                placementPolicy,
+                new Repo(user, project, src, properties, confCacheFile != null ? new ConfCache(confCacheFile) : null),
                 new FileOrchestrator(workDir, rootDir, filter, properties),
                 buildFlags,
                 logger,
                 tailFactory,
-                dockerfileValidator,
+                new DockerfileValidator(validationCacheFile != null ? new ValidationCache(validationCacheFile) : null),
                 definitionFilter,
-                permissionErrorTolerant);
+                permissionErrorTolerant,
+                parallelism,
+                stackStateFile != null ? new StackState(stackStateFile) : null,
+                dynamicPorts,
+                namespace);
+        // fail now, rather than part way through starting, if the configuration is invalid
+        orchestrator.definitions();
+        return orchestrator;
     }
 }
\ No newline at end of file
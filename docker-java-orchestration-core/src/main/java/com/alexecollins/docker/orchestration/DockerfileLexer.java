@@ -0,0 +1,129 @@
+package com.alexecollins.docker.orchestration;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads a Dockerfile one instruction at a time, joining continuation lines as it goes. Blank lines and comments are
+ * skipped, including those between continuation lines.
+ */
+final class DockerfileLexer implements Closeable {
+
+    private final BufferedReader reader;
+    private int lineNumber;
+    private boolean unterminated;
+
+    DockerfileLexer(Reader reader) {
+        if (reader == null) {
+            throw new IllegalArgumentException("reader is null");
+        }
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+    }
+
+    /**
+     * @return The next instruction, or null at the end of the file.
+     */
+    Instruction next() throws IOException {
+        StringBuilder line = null;
+        StringBuilder text = null;
+        int firstLine = 0;
+        String physicalLine;
+        while ((physicalLine = reader.readLine()) != null) {
+            lineNumber++;
+            if (physicalLine.trim().isEmpty() || physicalLine.startsWith("#")) {
+                continue;
+            }
+            if (line == null) {
+                line = new StringBuilder();
+                text = new StringBuilder();
+                firstLine = lineNumber;
+            } else {
+                text.append('\n');
+            }
+            line.append(physicalLine);
+            text.append(physicalLine);
+            if (!physicalLine.endsWith("\\")) {
+                return new Instruction(line.toString(), text.toString(), firstLine, lineNumber);
+            }
+        }
+        unterminated = line != null;
+        return null;
+    }
+
+    /**
+     * @return The number of lines read so far.
+     */
+    int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * @return If the file ended with a continuation line, i.e. the last instruction is incomplete.
+     */
+    boolean isUnterminated() {
+        return unterminated;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    static final class Instruction {
+        private final String line;
+        private final String text;
+        private final String name;
+        private final String params;
+        private final int firstLine;
+        private final int lastLine;
+
+        private Instruction(String line, String text, int firstLine, int lastLine) {
+            this.line = line;
+            this.text = text;
+            this.firstLine = firstLine;
+            this.lastLine = lastLine;
+            final String trimmed = line.trim();
+            final int space = trimmed.indexOf(' ');
+            this.name = space < 0 ? trimmed : trimmed.substring(0, space);
+            this.params = space < 0 ? null : trimmed.substring(space + 1);
+        }
+
+        /**
+         * @return The instruction on one line, continuation backslashes included.
+         */
+        String getLine() {
+            return line;
+        }
+
+        /**
+         * @return The instruction as written.
+         */
+        String getText() {
+            return text;
+        }
+
+        /**
+         * @return E.g. "FROM", as written.
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * @return Everything after the name, or null if there is nothing.
+         */
+        String getParams() {
+            return params;
+        }
+
+        int getFirstLine() {
+            return firstLine;
+        }
+
+        int getLastLine() {
+            return lastLine;
+        }
+    }
+}
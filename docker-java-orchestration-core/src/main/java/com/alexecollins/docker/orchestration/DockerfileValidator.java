@@ -10,6 +10,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
@@ -28,6 +29,23 @@ class DockerfileValidator {
     // http://stackoverflow.com/a/6949914/1216976
     private final static Map<String, Pattern> INSTRUCTIONS_PATTERNS = instructionsPatterns();
     private static final Logger logger = LoggerFactory.getLogger(DockerfileValidator.class);
+    /**
+     * Change this whenever the rules change, so that cached results are not used.
+     */
+    static final int RULES_VERSION = 1;
+
+    private final ValidationCache cache;
+
+    DockerfileValidator() {
+        this(null);
+    }
+
+    /**
+     * @param cache Of Dockerfiles that passed validation, maybe null.
+     */
+    DockerfileValidator(ValidationCache cache) {
+        this.cache = cache;
+    }
 
     private static Map<String, Pattern> instructionsPatterns() {
         Pattern addPattern = Pattern.compile("^(~?[${}A-z0-9\\/_.-]+|https?:\\/\\/(www\\.)?[-a-zA-Z0-9@:%._\\+~#=]{2,256}\\.[a-z]{2,6}\\b([-a-zA-Z0-9@:%_\\+.~#?&\\/\\/=]*))\\s~?[A-z0-9\\/_.-]+$");
@@ -48,6 +66,22 @@ class DockerfileValidator {
         return instructionPatterns;
     }
 
+    /**
+     * @param src The Dockerfile, or the folder containing it.
+     * @return The image named by the first instruction, if it is FROM, otherwise null. Null if there is no Dockerfile.
+     */
+    static String baseImage(File src) throws IOException {
+        final File dockerFile = src.isDirectory() ? new File(src, "Dockerfile") : src;
+        if (!dockerFile.isFile()) {
+            return null;
+        }
+        try (DockerfileLexer lexer = new DockerfileLexer(new FileReader(dockerFile))) {
+            final DockerfileLexer.Instruction instruction = lexer.next();
+            return instruction != null && "FROM".equalsIgnoreCase(instruction.getName()) && instruction.getParams() != null
+                    ? instruction.getParams().trim()
+                    : null;
+        }
+    }
 
     void validate(File src) throws IOException {
         boolean isOnError = false;
@@ -66,14 +100,18 @@ class DockerfileValidator {
             src = dockerFile.getParentFile();
         }
 
-        List<String> dockerFileContent = FileUtils.readLines(dockerFile);
-
-        if (dockerFileContent.size() <= 0) {
+        if (dockerFile.length() == 0) {
             throw new OrchestrationException(String.format(
                     "Dockerfile %s is empty", dockerFile));
         }
 
         File dockerIgnoreFile = new File(src, ".dockerignore");
+        final String key = cache != null ? ValidationCache.key(dockerFile, dockerIgnoreFile, RULES_VERSION) : null;
+        if (key != null && cache.contains(key)) {
+            logger.debug("{} is unchanged since it was last validated", dockerFile);
+            return;
+        }
+
         if (dockerIgnoreFile.exists()) {
             int lineNumber = 0;
             List<String> dockerIgnoreFileContent = FileUtils.readLines(dockerIgnoreFile);
@@ -98,116 +136,89 @@ class DockerfileValidator {
             }
         }
 
-        int lineNumber = 0;
-        boolean fromCheck = false;
-        String currentLine = "";
-        for (String cmd : dockerFileContent) {
-
-            lineNumber++;
-
-            if (cmd.trim().isEmpty() || cmd.startsWith("#"))
-                continue; // skip empty and comment lines
-
-            currentLine += cmd;
-            if (cmd.endsWith("\\")) {
-                continue;
-            }
-
-            String instruction;
-            String instructionParams;
-            if (currentLine.trim().contains(" ")) {
-                final String[] splitLine = currentLine.trim().split(" ", 2);
-                instruction = splitLine[0];
-                instructionParams = splitLine[1];
-            } else {
-                instruction = currentLine.trim();
-                instructionParams = null;
-            }
-
-            // First instruction must be FROM
-            if (!fromCheck) {
+        // one pass, so that long RUN instructions are not re-read or re-joined
+        try (DockerfileLexer lexer = new DockerfileLexer(new FileReader(dockerFile))) {
+            boolean fromCheck = false;
+            DockerfileLexer.Instruction next;
+            while ((next = lexer.next()) != null) {
+                isOnError |= !validate(next, dockerFile, !fromCheck);
                 fromCheck = true;
-                if (!"FROM".equalsIgnoreCase(instruction)) {
-                    logger.error(String.format(
-                            "Missing or misplaced FROM on line [%d] of %s, found %s", lineNumber, dockerFile, currentLine));
-                    isOnError = true;
-                }
-            } else {
-                if ("FROM".equalsIgnoreCase(instruction)) {
-                    logger.error(String.format(
-                            "Missing or misplaced FROM on line [%d] of %s, found %s", lineNumber, dockerFile, currentLine));
-                    isOnError = true;
-                }
             }
 
-            if (INSTRUCTIONS_PATTERNS.containsKey(instruction)) {
-                if (instructionParams == null) {
-                    logger.error(String.format(
-                            "Missing param on line [%d] of %s, found %s", lineNumber, dockerFile, currentLine));
-                    isOnError = true;
-                } else {
-                    Pattern instructionPattern = INSTRUCTIONS_PATTERNS.get(instruction);
-                    Matcher curMatcher = instructionPattern.matcher(instructionParams);
-                    if (!curMatcher.matches()) {
-                        logger.error(String.format(
-                                "Wrong %s format on line [%d] of %s, must match", currentLine, lineNumber, dockerFile));
-                        isOnError = true;
-                    }
-
-                    if ("FROM".equalsIgnoreCase(instruction)) {
-                        curMatcher = instructionPattern.matcher(instructionParams);
-
-                        if (curMatcher.find()) {
-                            String version = "";
-                            if (curMatcher.groupCount() >= 1)
-                                version = curMatcher.group(1);
-
-                            if (version.length() == 0) {
-                                logger.warn(String.format(
-                                        "Provide a version and don't use latest version in FROM on line [%d] of %s, found %s", lineNumber, dockerFile, currentLine));
-                            } else if (version.equals(":latest")) {
-                                logger.warn(String.format(
-                                        "Don't use latest version in FROM on line [%d] of %s, found %s", lineNumber, dockerFile, currentLine));
-
-                            }
-
-                        }
-
-                    }
-
-                    if ("RUN".equalsIgnoreCase(instruction)) {
-                        if (instructionParams.length() > 100) {
-                            String[] realLine = instructionParams.split("\\\\");
-                            for (int i = 0; i < realLine.length; i++) {
-                                if (realLine[i].length() > 100) {
-                                    logger.warn(String.format(
-                                            "The line %d of %s is too long (more than 100 chars) : %s...", (lineNumber - realLine.length + i + 1), dockerFile, realLine[i].substring(0, 50)));
-                                }
-                            }
-                        }
-                    }
-                }
-
-            } else {
+            if (lexer.isUnterminated()) {
                 logger.error(String.format(
-                        "Wrong instruction %s on line [%d] of %s", currentLine, lineNumber, dockerFile));
+                        "Last instruction is not finish on line [%d] of %s, please remove the backslash", lexer.getLineNumber(), dockerFile));
                 isOnError = true;
             }
+        }
 
-            //Deal with multi lines
-            currentLine = "";
+        if (isOnError)
+            throw new OrchestrationException(String.format("Error while validate Dockerfile %s.", dockerFile));
 
+        if (key != null) {
+            cache.add(key);
         }
 
-        if (!Strings.isNullOrEmpty(currentLine)) {
+    }
+
+    /**
+     * @param first If this is the first instruction, which must be FROM.
+     * @return If the instruction is valid. Errors are logged.
+     */
+    private static boolean validate(DockerfileLexer.Instruction next, File dockerFile, boolean first) {
+        final String currentLine = next.getLine();
+        final String instruction = next.getName();
+        final String instructionParams = next.getParams();
+        final int lineNumber = next.getLastLine();
+        boolean valid = true;
+
+        // First instruction must be FROM, and only the first
+        if (first != "FROM".equalsIgnoreCase(instruction)) {
             logger.error(String.format(
-                    "Last instruction is not finish on line [%d] of %s, please remove the backslash", lineNumber, dockerFile));
-            isOnError = true;
+                    "Missing or misplaced FROM on line [%d] of %s, found %s", lineNumber, dockerFile, currentLine));
+            valid = false;
+        }
 
+        final Pattern instructionPattern = INSTRUCTIONS_PATTERNS.get(instruction);
+        if (instructionPattern == null) {
+            logger.error(String.format(
+                    "Wrong instruction %s on line [%d] of %s", currentLine, lineNumber, dockerFile));
+            return false;
+        }
+        if (instructionParams == null) {
+            logger.error(String.format(
+                    "Missing param on line [%d] of %s, found %s", lineNumber, dockerFile, currentLine));
+            return false;
         }
 
-        if (isOnError)
-            throw new OrchestrationException(String.format("Error while validate Dockerfile %s.", dockerFile));
+        final Matcher curMatcher = instructionPattern.matcher(instructionParams);
+        final boolean matches = curMatcher.matches();
+        if (!matches) {
+            logger.error(String.format(
+                    "Wrong %s format on line [%d] of %s, must match", currentLine, lineNumber, dockerFile));
+            valid = false;
+        }
 
+        if (matches && "FROM".equalsIgnoreCase(instruction)) {
+            final String version = curMatcher.groupCount() >= 1 ? curMatcher.group(1) : "";
+            if (version.length() == 0) {
+                logger.warn(String.format(
+                        "Provide a version and don't use latest version in FROM on line [%d] of %s, found %s", lineNumber, dockerFile, currentLine));
+            } else if (version.equals(":latest")) {
+                logger.warn(String.format(
+                        "Don't use latest version in FROM on line [%d] of %s, found %s", lineNumber, dockerFile, currentLine));
+            }
+        }
+
+        if ("RUN".equalsIgnoreCase(instruction) && instructionParams.length() > 100) {
+            final String[] realLine = instructionParams.split("\\\\");
+            for (int i = 0; i < realLine.length; i++) {
+                if (realLine[i].length() > 100) {
+                    logger.warn(String.format(
+                            "The line %d of %s is too long (more than 100 chars) : %s...", (lineNumber - realLine.length + i + 1), dockerFile, realLine[i].substring(0, 50)));
+                }
+            }
+        }
+        return valid;
     }
 }
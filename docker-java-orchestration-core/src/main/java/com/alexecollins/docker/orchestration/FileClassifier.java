@@ -0,0 +1,102 @@
+package com.alexecollins.docker.orchestration;
+
+import com.alexecollins.docker.orchestration.model.Packaging;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides which files of a build context to filter, from the default file filter and a definition's packaging: files
+ * matching an exclude are never filtered, files matching an include always are (unless they are binary), and if
+ * sniffing is on, any file that is not binary is.
+ * <p/>
+ * A file is binary if its first block has a NUL byte. Only that block is read.
+ */
+final class FileClassifier implements FileFilter {
+
+    static final int BLOCK_SIZE = 8192;
+
+    private final File root;
+    private final FileFilter defaultFilter;
+    private final List<PathMatcher> includes;
+    private final List<PathMatcher> excludes;
+    private final boolean sniff;
+
+    /**
+     * @param root Globs are relative to this.
+     */
+    FileClassifier(File root, FileFilter defaultFilter, Packaging packaging) {
+        if (root == null) {
+            throw new IllegalArgumentException("root is null");
+        }
+        if (defaultFilter == null) {
+            throw new IllegalArgumentException("defaultFilter is null");
+        }
+        if (packaging == null) {
+            throw new IllegalArgumentException("packaging is null");
+        }
+        this.root = root.getAbsoluteFile();
+        this.defaultFilter = defaultFilter;
+        this.includes = compile(packaging.getFilterIncludes());
+        this.excludes = compile(packaging.getFilterExcludes());
+        this.sniff = packaging.isSniff();
+    }
+
+    private static List<PathMatcher> compile(List<String> globs) {
+        final List<PathMatcher> matchers = new ArrayList<>();
+        for (String glob : globs) {
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+        }
+        return matchers;
+    }
+
+    private static boolean matches(List<PathMatcher> matchers, Path path) {
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean isBinary(File file) throws IOException {
+        final byte[] block = new byte[BLOCK_SIZE];
+        try (InputStream in = new FileInputStream(file)) {
+            final int length = IOUtils.read(in, block);
+            for (int i = 0; i < length; i++) {
+                if (block[i] == 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean accept(File file) {
+        if (!file.isFile()) {
+            return false;
+        }
+        final Path path = root.toPath().relativize(file.getAbsoluteFile().toPath());
+        if (matches(excludes, path)) {
+            return false;
+        }
+        if (!sniff && !matches(includes, path)) {
+            return defaultFilter.accept(file);
+        }
+        try {
+            return !isBinary(file);
+        } catch (IOException e) {
+            throw new OrchestrationException(e);
+        }
+    }
+}
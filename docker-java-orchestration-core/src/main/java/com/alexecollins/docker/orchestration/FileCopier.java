@@ -0,0 +1,138 @@
+package com.alexecollins.docker.orchestration;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Copies files with {@link FileChannel#transferTo}, so the bytes need not pass through the heap, and copies the files
+ * of a folder on several threads. Times last modified are preserved.
+ */
+final class FileCopier {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileCopier.class);
+
+    private final int threads;
+
+    FileCopier(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * @param src    A file or a folder.
+     * @param dest   The file or folder to copy to. Existing files are replaced.
+     * @param filter Which files under a folder to copy. Folders that are not accepted are not descended into.
+     * @return The number of bytes copied.
+     */
+    long copy(File src, File dest, FileFilter filter) throws IOException {
+        final long start = System.currentTimeMillis();
+        final List<File[]> folders = new ArrayList<>();
+        final List<File[]> files = new ArrayList<>();
+        walk(src, dest, filter, folders, files);
+
+        long bytes = 0;
+        if (files.size() == 1) {
+            bytes = copyFile(files.get(0)[0], files.get(0)[1]);
+        } else if (!files.isEmpty()) {
+            final ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, files.size()));
+            try {
+                final List<Future<Long>> copies = new ArrayList<>();
+                for (final File[] file : files) {
+                    copies.add(executor.submit(new Callable<Long>() {
+                        @Override
+                        public Long call() throws IOException {
+                            return copyFile(file[0], file[1]);
+                        }
+                    }));
+                }
+                for (Future<Long> copy : copies) {
+                    bytes += get(copy);
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        // innermost first, and once their files have been copied into them
+        for (int i = folders.size() - 1; i >= 0; i--) {
+            setLastModified(folders.get(i)[0], folders.get(i)[1]);
+        }
+
+        final long millis = Math.max(1, System.currentTimeMillis() - start);
+        LOGGER.info(" - copied " + files.size() + " file(s), " + bytes + " bytes in " + millis + " ms ("
+                + (bytes * 1000 / millis) + " bytes/s)");
+        return bytes;
+    }
+
+    /**
+     * Creates the folders, and lists the folders and files copied.
+     */
+    private static void walk(File src, File dest, FileFilter filter, List<File[]> folders, List<File[]> files) throws IOException {
+        if (src.isDirectory()) {
+            FileUtils.forceMkdir(dest);
+            folders.add(new File[]{src, dest});
+            final File[] children = src.listFiles(filter);
+            if (children == null) {
+                throw new IOException("failed to list " + src);
+            }
+            for (File child : children) {
+                walk(child, new File(dest, child.getName()), filter, folders, files);
+            }
+        } else {
+            files.add(new File[]{src, dest});
+        }
+    }
+
+    static long copyFile(File src, File dest) throws IOException {
+        // replaced rather than overwritten, as it may be a link to a stored artifact
+        Files.deleteIfExists(dest.toPath());
+        try (FileChannel in = new FileInputStream(src).getChannel();
+             FileChannel out = new FileOutputStream(dest).getChannel()) {
+            final long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+        setLastModified(src, dest);
+        return dest.length();
+    }
+
+    private static void setLastModified(File src, File dest) throws IOException {
+        if (!dest.setLastModified(src.lastModified())) {
+            throw new IOException("failed to set time last modified of " + dest);
+        }
+    }
+
+    private static long get(Future<Long> copy) throws IOException {
+        try {
+            return copy.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OrchestrationException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new OrchestrationException(e.getCause());
+        }
+    }
+}
@@ -4,18 +4,17 @@ import com.alexecollins.docker.orchestration.model.Conf;
 import com.alexecollins.docker.orchestration.model.Id;
 import com.alexecollins.docker.orchestration.model.Item;
 import com.alexecollins.docker.orchestration.util.Filters;
+import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
-import static org.apache.commons.io.FileUtils.copyDirectory;
-import static org.apache.commons.io.FileUtils.copyDirectoryToDirectory;
-import static org.apache.commons.io.FileUtils.copyFileToDirectory;
-
 class FileOrchestrator {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(FileOrchestrator.class);
@@ -39,6 +38,13 @@ class FileOrchestrator {
      */
     private final File rootDir;
 
+    private final FileCopier fileCopier;
+
+    /**
+     * artifacts added to more than one context are stored once
+     */
+    private final ArtifactStore artifactStore;
+
     FileOrchestrator(File workDir, File rootDir, FileFilter fileFilter, Properties properties) {
         if (workDir == null) {
             throw new IllegalArgumentException("Working output directory is null");
@@ -57,6 +63,8 @@ class FileOrchestrator {
         this.rootDir = rootDir;
         this.filter = fileFilter;
         this.properties = properties;
+        this.fileCopier = new FileCopier(Runtime.getRuntime().availableProcessors());
+        this.artifactStore = new ArtifactStore(new File(workDir, ".artifacts"));
     }
 
     File prepare(Id id, File dockerFolder, Conf conf) throws IOException {
@@ -64,30 +72,71 @@ class FileOrchestrator {
             throw new IllegalArgumentException("id is null");
         }
         final File destDir = new File(workDir, dockerFolder.getName());
+        // files the daemon would ignore are never copied, and so never filtered
+        final DockerIgnore dockerIgnore = DockerIgnore.read(dockerFolder);
+
         // copy template
-        copyDirectory(dockerFolder, destDir);
+        fileCopier.copy(dockerFolder, destDir, dockerIgnore.filter(dockerFolder));
 
-        Filters.filter(destDir, filter, properties);
+        final FileClassifier classifier = new FileClassifier(destDir, filter, conf.getPackaging());
+        Filters.filter(destDir, classifier, properties);
 
         // copy files
         for (Item item : conf.getPackaging().getAdd()) {
             File fileEntry = new File(rootDir, item.getPath());
-            copyFileEntry(destDir, fileEntry);
+            if (dockerIgnore.isExcluded(fileEntry.getName())) {
+                LOGGER.info(" - skip " + fileEntry + " as it is excluded by .dockerignore");
+                continue;
+            }
             if (item.shouldFilter()) {
-                Filters.filter(fileEntry, filter, properties);
+                // filtered files differ from the original, so are copied rather than stored
+                copyFileEntry(destDir, fileEntry, dockerIgnore);
+                Filters.filter(new File(destDir, fileEntry.getName()), classifier, properties);
+            } else {
+                LOGGER.info(" - add " + fileEntry);
+                artifactStore.materialise(fileEntry, new File(destDir, fileEntry.getName()), dockerIgnore.filter(fileEntry.getParentFile()));
             }
         }
 
         return destDir;
     }
 
-    private void copyFileEntry(final File destDir, File fileEntry) throws IOException {
+    private void copyFileEntry(final File destDir, File fileEntry, DockerIgnore dockerIgnore) throws IOException {
         LOGGER.info(" - add " + fileEntry);
-        if (fileEntry.isDirectory()) {
-            copyDirectoryToDirectory(fileEntry, destDir);
-        } else {
-            copyFileToDirectory(fileEntry, destDir);
+        // relative to the parent, so the paths matched are those in the build context
+        fileCopier.copy(fileEntry, new File(destDir, fileEntry.getName()), dockerIgnore.filter(fileEntry.getParentFile()));
+    }
+
+    /**
+     * @return The files and folders that the configuration adds to the build context.
+     */
+    List<File> addedFiles(Conf conf) {
+        final List<File> files = new ArrayList<>();
+        for (Item item : conf.getPackaging().getAdd()) {
+            files.add(new File(rootDir, item.getPath()));
         }
+        return files;
     }
 
+    /**
+     * Removes stored artifacts that are no longer added to any context.
+     */
+    void clean() throws IOException {
+        final int removed = artifactStore.clean();
+        if (removed > 0) {
+            LOGGER.info("Removed " + removed + " unused artifact(s)");
+        }
+        final File[] sharedBaseFolders = workDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isDirectory() && file.getName().startsWith(SharedBaseImages.FOLDER_PREFIX);
+            }
+        });
+        if (sharedBaseFolders != null) {
+            for (File sharedBaseFolder : sharedBaseFolders) {
+                LOGGER.info("Removing " + sharedBaseFolder);
+                FileUtils.deleteDirectory(sharedBaseFolder);
+            }
+        }
+    }
 }
@@ -0,0 +1,125 @@
+package com.alexecollins.docker.orchestration;
+
+import com.alexecollins.docker.orchestration.model.Id;
+import com.github.dockerjava.api.model.Container;
+import com.github.dockerjava.api.model.ExposedPort;
+import com.github.dockerjava.api.model.Ports;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Chooses a daemon for each container, and links containers on different daemons.
+ */
+final class Placement {
+
+    private Placement() {
+    }
+
+    /**
+     * A container goes on the daemon it is pinned to, otherwise on the daemon it already exists on (so that it is not
+     * moved every time the stack is started), otherwise on the daemon the policy chooses.
+     *
+     * @param definitions In start order.
+     * @param snapshots   Of each daemon.
+     */
+    static Map<Id, Daemon> place(List<Definition> definitions, List<Daemon> daemons, Map<Daemon, Snapshot> snapshots, PlacementPolicy policy) {
+        final int[] load = new int[daemons.size()];
+        for (int i = 0; i < load.length; i++) {
+            load[i] = snapshots.get(daemons.get(i)).getRunningCount();
+        }
+        final Map<Id, Daemon> placements = new LinkedHashMap<>();
+        int chosen = 0;
+        for (Definition definition : definitions) {
+            final String pinned = definition.getConf().getDaemon();
+            int index;
+            if (pinned != null) {
+                index = indexOf(daemons, pinned);
+                if (index < 0) {
+                    throw new OrchestrationException(definition.getId() + " is pinned to unknown daemon " + pinned + ", expected one of " + daemons);
+                }
+            } else {
+                index = existing(definition, daemons, snapshots);
+                if (index < 0) {
+                    index = policy.choose(chosen++, load);
+                }
+            }
+            final Snapshot snapshot = snapshots.get(daemons.get(index));
+            if (!snapshot.isRunning(DockerOrchestrator.findContainer(definition, snapshot.getContainers()))) {
+                load[index]++;
+            }
+            placements.put(definition.getId(), daemons.get(index));
+        }
+        return placements;
+    }
+
+    private static int indexOf(List<Daemon> daemons, String name) {
+        for (int i = 0; i < daemons.size(); i++) {
+            if (daemons.get(i).getName().equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The daemon the container is running on, else the daemon it exists on, else -1.
+     */
+    private static int existing(Definition definition, List<Daemon> daemons, Map<Daemon, Snapshot> snapshots) {
+        int existing = -1;
+        for (int i = 0; i < daemons.size(); i++) {
+            final Snapshot snapshot = snapshots.get(daemons.get(i));
+            final Container container = DockerOrchestrator.findContainer(definition, snapshot.getContainers());
+            if (snapshot.isRunning(container)) {
+                return i;
+            }
+            if (container != null && existing < 0) {
+                existing = i;
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * Docker links only work between containers on the same daemon. For a container on another daemon, provide the
+     * same environment variables a link would, but pointing at the ports the linked container publishes on its host.
+     *
+     * @param alias The link alias, e.g. "db".
+     * @param host  The address of the linked container's daemon.
+     * @param ports The linked container's ports.
+     * @return E.g. "DB_PORT_5432_TCP=tcp://10.0.0.2:49153".
+     */
+    static List<String> linkEnv(String alias, String host, Ports ports) {
+        final String prefix = alias.toUpperCase(Locale.ENGLISH).replaceAll("[^A-Z0-9_]", "_") + "_PORT";
+        final List<ExposedPort> exposedPorts = new ArrayList<>(ports.getBindings().keySet());
+        Collections.sort(exposedPorts, new Comparator<ExposedPort>() {
+            @Override
+            public int compare(ExposedPort o1, ExposedPort o2) {
+                return Integer.compare(o1.getPort(), o2.getPort());
+            }
+        });
+        final List<String> env = new ArrayList<>();
+        for (ExposedPort exposedPort : exposedPorts) {
+            final Ports.Binding[] bindings = ports.getBindings().get(exposedPort);
+            if (bindings == null || bindings.length == 0 || bindings[0].getHostPort() == null) {
+                continue;
+            }
+            final String protocol = exposedPort.getProtocol().toString().toLowerCase(Locale.ENGLISH);
+            final String url = protocol + "://" + host + ":" + bindings[0].getHostPort();
+            final String name = prefix + "_" + exposedPort.getPort() + "_" + protocol.toUpperCase(Locale.ENGLISH);
+            if (env.isEmpty()) {
+                env.add(prefix + "=" + url);
+            }
+            env.add(name + "=" + url);
+            env.add(name + "_ADDR=" + host);
+            env.add(name + "_PORT=" + bindings[0].getHostPort());
+            env.add(name + "_PROTO=" + protocol);
+        }
+        return env;
+    }
+}
@@ -0,0 +1,39 @@
+package com.alexecollins.docker.orchestration;
+
+/**
+ * How to choose the daemon for a container that is not pinned to a daemon (see
+ * {@link com.alexecollins.docker.orchestration.model.Conf#getDaemon()}) and does not already exist on one.
+ */
+public enum PlacementPolicy {
+    /**
+     * Take turns, in start order.
+     */
+    ROUND_ROBIN {
+        @Override
+        int choose(int index, int[] load) {
+            return index % load.length;
+        }
+    },
+    /**
+     * The daemon with the fewest running containers, counting those placed so far.
+     */
+    LEAST_LOADED {
+        @Override
+        int choose(int index, int[] load) {
+            int chosen = 0;
+            for (int i = 1; i < load.length; i++) {
+                if (load[i] < load[chosen]) {
+                    chosen = i;
+                }
+            }
+            return chosen;
+        }
+    };
+
+    /**
+     * @param index How many containers have been placed by this policy so far.
+     * @param load  The number of running containers on each daemon, including those placed so far.
+     * @return The index of the daemon to use.
+     */
+    abstract int choose(int index, int[] load);
+}
@@ -0,0 +1,113 @@
+package com.alexecollins.docker.orchestration;
+
+import com.alexecollins.docker.orchestration.model.Id;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The actions needed to bring every included definition to a running container, computed from a single snapshot of
+ * the daemon by {@link DockerOrchestrator#plan()} and executed by {@link DockerOrchestrator#apply(Plan)}.
+ * <p/>
+ * A plan describes the daemon as it was when the plan was made. If the daemon changes before the plan is applied,
+ * make a new plan.
+ */
+public final class Plan {
+
+    private final List<Step> steps;
+
+    Plan(List<Step> steps) {
+        this.steps = Collections.unmodifiableList(new ArrayList<>(steps));
+    }
+
+    /**
+     * @return One step per included definition, in start order.
+     */
+    public List<Step> getSteps() {
+        return steps;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder out = new StringBuilder();
+        for (Step step : steps) {
+            out.append(step).append('\n');
+        }
+        return out.toString();
+    }
+
+    public enum Action {
+        BUILD,
+        STOP,
+        REMOVE,
+        CREATE,
+        START
+    }
+
+    public static final class Step {
+        private final Definition definition;
+        private final Daemon daemon;
+        private final String containerId;
+        private final List<Action> actions;
+        private final String reason;
+
+        /**
+         * @param containerId The existing container, maybe null.
+         */
+        Step(Definition definition, Daemon daemon, String containerId, List<Action> actions, String reason) {
+            this.definition = definition;
+            this.daemon = daemon;
+            this.containerId = containerId;
+            this.actions = Collections.unmodifiableList(new ArrayList<>(actions));
+            this.reason = reason;
+        }
+
+        Definition getDefinition() {
+            return definition;
+        }
+
+        Daemon getDaemon() {
+            return daemon;
+        }
+
+        /**
+         * @return The name of the daemon the container is on, or will be created on.
+         */
+        public String getDaemonName() {
+            return daemon.getName();
+        }
+
+        String getContainerId() {
+            return containerId;
+        }
+
+        public Id getId() {
+            return definition.getId();
+        }
+
+        /**
+         * @return The actions to perform, in order. Empty if the container is already running.
+         */
+        public List<Action> getActions() {
+            return actions;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        public boolean isNoOp() {
+            return actions.isEmpty();
+        }
+
+        boolean builds() {
+            return actions.contains(Action.BUILD);
+        }
+
+        @Override
+        public String toString() {
+            return getId() + " on " + daemon + ": " + (isNoOp() ? "no-op" : actions.toString()) + " (" + reason + ")";
+        }
+    }
+}
@@ -3,16 +3,16 @@ package com.alexecollins.docker.orchestration;
 import com.alexecollins.docker.orchestration.model.Conf;
 import com.alexecollins.docker.orchestration.model.ContainerConf;
 import com.alexecollins.docker.orchestration.model.Id;
-import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
-import org.apache.commons.io.filefilter.DirectoryFileFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileFilter;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -20,23 +20,32 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-@SuppressWarnings("CanBeFinal")
 class Repo {
 
     private static final Logger LOG = LoggerFactory.getLogger(Repo.class);
-    private static ObjectMapper MAPPER = new ObjectMapper(new YAMLFactory())
-            .configure(JsonGenerator.Feature.IGNORE_UNKNOWN, true);
     private final String user;
     private final String project;
     private final File src;
+    private final Properties properties;
+    private final ConfCache confCache;
     private final Map<Id, Conf> confs = new LinkedHashMap<>();
 
+    Repo(String user, String project, File src, Properties properties) {
+        this(user, project, src, properties, null);
+    }
+
     /**
-     * @param user Name of the repo use. Maybe null.
+     * @param user      Name of the repo use. Maybe null.
+     * @param confCache Cache of the resolved configuration. Maybe null.
      */
     @SuppressWarnings("ConstantConditions")
-    Repo(String user, String project, File src, Properties properties) {
+    Repo(String user, String project, File src, Properties properties, ConfCache confCache) {
         if (user == null) {
             throw new IllegalArgumentException("user is null");
         }
@@ -56,19 +65,76 @@ class Repo {
         this.user = user;
         this.project = project;
         this.src = src;
+        this.properties = properties;
+        this.confCache = confCache;
 
         if (src.isDirectory()) {
-            readDockerConf(src, properties);
-            ensureEmptyFolderConfs(src);
-            readChildConfs(src, properties);
+            if (confCache == null) {
+                readConfs(src, properties);
+            } else {
+                readConfs(src, properties, confCache);
+            }
         }
     }
 
-    private static Conf readConfFile(File confFile, Properties properties) throws IOException {
-        return confFile.length() > 0 ? MAPPER.readValue(Confs.replacingReader(confFile, properties), Conf.class) : new Conf();
+    /**
+     * @return The repo read again, e.g. once its configuration files have changed.
+     */
+    Repo reload() {
+        return new Repo(user, project, src, properties, confCache);
+    }
+
+    private static <T> T get(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
     }
 
-    private void readDockerConf(File src, Properties properties) {
+    private void readConfs(File src, Properties properties, ConfCache confCache) {
+        String key;
+        try {
+            key = ConfCache.key(src, properties);
+        } catch (IOException e) {
+            LOG.warn("not using configuration cache: " + e.getMessage());
+            readConfs(src, properties);
+            return;
+        }
+        Map<Id, Conf> cached = confCache.read(key);
+        if (cached != null) {
+            LOG.info("using cached configuration for " + src);
+            confs.putAll(cached);
+            return;
+        }
+        readConfs(src, properties);
+        confCache.write(key, confs);
+    }
+
+    private void readConfs(final File src, Properties properties) {
+        final Map<File, Exception> errors = new LinkedHashMap<>();
+        readDockerConf(src, properties, errors);
+        try {
+            ensureEmptyFolderConfs(folderIds(src));
+        } catch (IOException e) {
+            errors.put(src, e);
+        }
+        readChildConfs(src, properties, errors);
+
+        if (!errors.isEmpty()) {
+            StringBuilder message = new StringBuilder("failed to read ").append(errors.size()).append(" configuration file(s)");
+            for (Map.Entry<File, Exception> error : errors.entrySet()) {
+                message.append("\n - ").append(error.getKey()).append(": ").append(error.getValue().getMessage());
+            }
+            OrchestrationException exception = new OrchestrationException(message.toString());
+            for (Exception e : errors.values()) {
+                exception.addSuppressed(e);
+            }
+            throw exception;
+        }
+    }
+
+    private void readDockerConf(File src, Properties properties, Map<File, Exception> errors) {
         // prioritise the docker.yml, especially for ordering
         File dockerConf = new File(src, "docker.yml");
         if (dockerConf.exists()) {
@@ -76,28 +142,75 @@ class Repo {
             try {
                 confs.putAll(Confs.read(dockerConf, properties));
             } catch (IOException e) {
-                throw new OrchestrationException(e);
+                errors.put(dockerConf, e);
             }
         }
     }
 
-    private void readChildConfs(File src, Properties properties) {
+    private void readChildConfs(File src, final Properties properties, Map<File, Exception> errors) {
+        final Map<Id, File> confFiles = new LinkedHashMap<>();
         for (Id id : confs.keySet()) {
-            File confFile = new File(src, id + "/conf.yml");
+            final File confFile = new File(src, id + "/conf.yml");
             if (confFile.exists()) {
                 LOG.info("reading " + confFile);
+                confFiles.put(id, confFile);
+            }
+        }
+        // a pool is only worth starting for more than one file, and never needs more threads than files
+        final int threads = Math.min(confFiles.size(), Runtime.getRuntime().availableProcessors());
+        if (threads <= 1) {
+            for (Map.Entry<Id, File> entry : confFiles.entrySet()) {
                 try {
-                    confs.put(id, readConfFile(confFile, properties));
+                    confs.put(entry.getKey(), Confs.readConf(entry.getValue(), properties));
                 } catch (IOException e) {
-                    throw new OrchestrationException(e);
+                    errors.put(entry.getValue(), e);
+                }
+            }
+            return;
+        }
+        final Map<Id, Future<Conf>> futures = new LinkedHashMap<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (Map.Entry<Id, File> entry : confFiles.entrySet()) {
+                final File confFile = entry.getValue();
+                futures.put(entry.getKey(), executor.submit(new Callable<Conf>() {
+                    @Override
+                    public Conf call() throws IOException {
+                        return Confs.readConf(confFile, properties);
+                    }
+                }));
+            }
+            // collect in order, so that every broken file is reported, not just the first
+            for (Map.Entry<Id, Future<Conf>> entry : futures.entrySet()) {
+                Id id = entry.getKey();
+                try {
+                    confs.put(id, get(entry.getValue()));
+                } catch (Exception e) {
+                    errors.put(confFiles.get(id), e);
                 }
             }
+        } finally {
+            executor.shutdownNow();
         }
     }
 
-    private void ensureEmptyFolderConfs(File src) {
-        for (File file : src.listFiles((FileFilter) DirectoryFileFilter.INSTANCE)) {
-            Id id = new Id(file.getName());
+    private List<Id> folderIds(File src) throws IOException {
+        final List<Id> ids = new ArrayList<>();
+        try (DirectoryStream<Path> folders = Files.newDirectoryStream(src.toPath(), new DirectoryStream.Filter<Path>() {
+            @Override
+            public boolean accept(Path entry) {
+                return Files.isDirectory(entry);
+            }
+        })) {
+            for (Path folder : folders) {
+                ids.add(new Id(folder.getFileName().toString()));
+            }
+        }
+        return ids;
+    }
+
+    private void ensureEmptyFolderConfs(List<Id> folderIds) {
+        for (Id id : folderIds) {
             if (!confs.containsKey(id)) {
                 confs.put(id, new Conf());
             }
@@ -134,6 +247,13 @@ class Repo {
         return new File(src(), id.toString());
     }
 
+    /**
+     * @return The files the configuration of the id is read from, whether they exist or not.
+     */
+    List<File> confFiles(Id id) {
+        return Arrays.asList(new File(src(), "docker.yml"), new File(src(id), "conf.yml"));
+    }
+
     List<Id> ids(boolean reverse) {
 
         final Map<Id, List<Id>> links = new LinkedHashMap<>();
@@ -0,0 +1,232 @@
+package com.alexecollins.docker.orchestration;
+
+import com.alexecollins.docker.orchestration.model.Id;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Finds the leading instructions that prepared Dockerfiles have in common, moves them into a synthetic base image,
+ * and rewrites the Dockerfiles to start FROM it, so that the common instructions are built once.
+ * <p/>
+ * An ADD or COPY is only common if the files it adds are identical. ADD and COPY with wildcards or in JSON form, and
+ * ONBUILD (which would be triggered by the images built FROM the base), end the common instructions.
+ */
+final class SharedBaseImages {
+
+    static final String REPOSITORY = "docker-java-orchestration/shared-base";
+    /**
+     * Prefix of the folder each base is built from, alongside the prepared folders.
+     */
+    static final String FOLDER_PREFIX = "shared-base-";
+
+    private SharedBaseImages() {
+    }
+
+    /**
+     * @param dockerFolders The prepared folder of each image to be built. Dockerfiles that share a base are rewritten.
+     * @return The bases to build, each before the images that depend on it.
+     */
+    static List<Base> extract(Map<Id, File> dockerFolders) throws IOException {
+        // group by the first instruction, i.e. FROM
+        final Map<String, Map<Id, List<Instruction>>> groups = new LinkedHashMap<>();
+        for (Map.Entry<Id, File> entry : dockerFolders.entrySet()) {
+            final List<Instruction> instructions = instructions(entry.getValue());
+            if (instructions.isEmpty() || instructions.get(0).key == null) {
+                continue;
+            }
+            final String first = instructions.get(0).key;
+            if (!groups.containsKey(first)) {
+                groups.put(first, new LinkedHashMap<Id, List<Instruction>>());
+            }
+            groups.get(first).put(entry.getKey(), instructions);
+        }
+
+        final List<Base> bases = new ArrayList<>();
+        for (Map<Id, List<Instruction>> group : groups.values()) {
+            if (group.size() < 2) {
+                continue;
+            }
+            final List<List<Instruction>> members = new ArrayList<>(group.values());
+            final int length = commonPrefixLength(members);
+            // only FROM in common, nothing to share
+            if (length < 2) {
+                continue;
+            }
+            final List<Instruction> prefix = members.get(0).subList(0, length);
+            final Hasher hasher = Hashing.sha1().newHasher();
+            for (Instruction instruction : prefix) {
+                hasher.putString(instruction.key, Charsets.UTF_8).putByte((byte) 0);
+            }
+            final String hash = hasher.hash().toString().substring(0, 12);
+            final String tag = REPOSITORY + ":" + hash;
+
+            final File firstFolder = dockerFolders.get(group.keySet().iterator().next());
+            final File baseFolder = new File(firstFolder.getParentFile(), FOLDER_PREFIX + hash);
+            writeBase(baseFolder, firstFolder, prefix);
+
+            for (Map.Entry<Id, List<Instruction>> member : group.entrySet()) {
+                rewrite(new File(dockerFolders.get(member.getKey()), "Dockerfile"), tag, member.getValue().subList(length, member.getValue().size()));
+            }
+            bases.add(new Base(tag, baseFolder, new ArrayList<>(group.keySet())));
+        }
+        return bases;
+    }
+
+    private static int commonPrefixLength(List<List<Instruction>> members) {
+        int length = 0;
+        while (true) {
+            String key = null;
+            for (List<Instruction> instructions : members) {
+                // leave at least one instruction for each image, so it is not just a re-tag of the base
+                if (length >= instructions.size() - 1 || instructions.get(length).key == null) {
+                    return length;
+                }
+                if (key == null) {
+                    key = instructions.get(length).key;
+                } else if (!key.equals(instructions.get(length).key)) {
+                    return length;
+                }
+            }
+            length++;
+        }
+    }
+
+    private static void writeBase(File baseFolder, File sourceFolder, List<Instruction> prefix) throws IOException {
+        FileUtils.deleteDirectory(baseFolder);
+        final StringBuilder dockerfile = new StringBuilder();
+        for (Instruction instruction : prefix) {
+            dockerfile.append(instruction.text).append('\n');
+            for (String source : instruction.sources) {
+                final File file = new File(sourceFolder, source);
+                final File destination = new File(baseFolder, source);
+                if (file.isDirectory()) {
+                    FileUtils.copyDirectory(file, destination);
+                } else {
+                    FileUtils.copyFile(file, destination);
+                }
+            }
+        }
+        FileUtils.write(new File(baseFolder, "Dockerfile"), dockerfile.toString());
+    }
+
+    private static void rewrite(File dockerfile, String tag, List<Instruction> rest) throws IOException {
+        final StringBuilder out = new StringBuilder("FROM " + tag + "\n");
+        for (Instruction instruction : rest) {
+            out.append(instruction.text).append('\n');
+        }
+        FileUtils.write(dockerfile, out.toString());
+    }
+
+    private static List<Instruction> instructions(File dockerFolder) throws IOException {
+        final File dockerfile = new File(dockerFolder, "Dockerfile");
+        if (!dockerfile.isFile()) {
+            return Collections.emptyList();
+        }
+        final List<Instruction> instructions = new ArrayList<>();
+        try (DockerfileLexer lexer = new DockerfileLexer(new FileReader(dockerfile))) {
+            DockerfileLexer.Instruction next;
+            while ((next = lexer.next()) != null) {
+                instructions.add(instruction(dockerFolder, next.getText()));
+            }
+            // leave broken files to the build to report
+            return lexer.isUnterminated() ? Collections.<Instruction>emptyList() : instructions;
+        }
+    }
+
+    private static Instruction instruction(File dockerFolder, String text) throws IOException {
+        final String[] parts = text.replace("\\\n", " ").trim().split("\\s+");
+        final String name = parts[0].toUpperCase(Locale.ENGLISH);
+        if (name.equals("ONBUILD")) {
+            return new Instruction(text, null, Collections.<String>emptyList());
+        }
+        if (!name.equals("ADD") && !name.equals("COPY")) {
+            return new Instruction(text, Arrays.toString(parts), Collections.<String>emptyList());
+        }
+        if (parts.length < 3 || parts[1].startsWith("[")) {
+            return new Instruction(text, null, Collections.<String>emptyList());
+        }
+        // the key includes the content of the files, as two images may add different files at the same path
+        final StringBuilder key = new StringBuilder(Arrays.toString(parts));
+        final List<String> sources = new ArrayList<>();
+        for (String source : Arrays.asList(parts).subList(1, parts.length - 1)) {
+            if (source.contains("://")) {
+                continue;
+            }
+            final File file = new File(dockerFolder, source);
+            if (source.matches(".*[*?\\[].*") || !file.exists()) {
+                return new Instruction(text, null, Collections.<String>emptyList());
+            }
+            key.append(' ').append(hash(file));
+            sources.add(source);
+        }
+        return new Instruction(text, key.toString(), sources);
+    }
+
+    private static String hash(File file) throws IOException {
+        if (!file.isDirectory()) {
+            return Files.hash(file, Hashing.sha1()).toString();
+        }
+        final Hasher hasher = Hashing.sha1().newHasher();
+        final File[] children = file.listFiles();
+        if (children != null) {
+            Arrays.sort(children);
+            for (File child : children) {
+                hasher.putString(child.getName() + " " + hash(child), Charsets.UTF_8).putByte((byte) 0);
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    private static final class Instruction {
+        private final String text;
+        /**
+         * Null if this instruction cannot be shared.
+         */
+        private final String key;
+        private final List<String> sources;
+
+        private Instruction(String text, String key, List<String> sources) {
+            this.text = text;
+            this.key = key;
+            this.sources = sources;
+        }
+    }
+
+    static final class Base {
+        private final String tag;
+        private final File dockerFolder;
+        private final List<Id> dependents;
+
+        private Base(String tag, File dockerFolder, List<Id> dependents) {
+            this.tag = tag;
+            this.dockerFolder = dockerFolder;
+            this.dependents = dependents;
+        }
+
+        String getTag() {
+            return tag;
+        }
+
+        File getDockerFolder() {
+            return dockerFolder;
+        }
+
+        List<Id> getDependents() {
+            return dependents;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.alexecollins.docker.orchestration;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.model.Container;
+import com.github.dockerjava.api.model.Image;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The containers and images on a daemon at one point in time.
+ */
+final class Snapshot {
+
+    private final List<Container> containers;
+    private final Set<String> runningContainerIds;
+    private final List<Image> images;
+
+    private Snapshot(List<Container> containers, Set<String> runningContainerIds, List<Image> images) {
+        this.containers = containers;
+        this.runningContainerIds = runningContainerIds;
+        this.images = images;
+    }
+
+    static Snapshot of(DockerClient docker) {
+        final List<Container> containers = docker.listContainersCmd().withShowAll(true).exec();
+        final Set<String> runningContainerIds = new HashSet<>();
+        for (Container container : docker.listContainersCmd().withShowAll(false).exec()) {
+            runningContainerIds.add(container.getId());
+        }
+        return new Snapshot(containers, runningContainerIds, docker.listImagesCmd().exec());
+    }
+
+    List<Container> getContainers() {
+        return containers;
+    }
+
+    List<Image> getImages() {
+        return images;
+    }
+
+    int getRunningCount() {
+        return runningContainerIds.size();
+    }
+
+    boolean isRunning(Container container) {
+        return container != null && runningContainerIds.contains(container.getId());
+    }
+}
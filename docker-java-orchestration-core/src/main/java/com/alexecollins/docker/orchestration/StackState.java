@@ -0,0 +1,101 @@
+package com.alexecollins.docker.orchestration;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Records the fingerprint of the last stack started, and the containers it was started as, so that starting an
+ * unchanged stack that is still running can be skipped.
+ * <p/>
+ * The fingerprint covers the id, tag and container spec of each included definition. Images are only built when
+ * missing, so an image rebuilt outside of the orchestrator is not noticed; the orchestrator forgets the state whenever
+ * it builds, stops or cleans.
+ */
+class StackState {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StackState.class);
+
+    private final File file;
+
+    StackState(File file) {
+        if (file == null) {
+            throw new IllegalArgumentException("file is null");
+        }
+        this.file = file;
+    }
+
+    static String fingerprint(List<Definition> definitions) {
+        final Hasher hasher = Hashing.sha1().newHasher();
+        for (Definition definition : definitions) {
+            hasher.putString(definition.getId().toString(), Charsets.UTF_8).putByte((byte) 0);
+            hasher.putString(definition.getTag(), Charsets.UTF_8).putByte((byte) 0);
+            hasher.putString(definition.getSpecHash(), Charsets.UTF_8).putByte((byte) 0);
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * @return The containers the stack was started as, or null if no stack with this fingerprint was recorded.
+     */
+    Set<String> read(String fingerprint) {
+        if (!file.isFile()) {
+            return null;
+        }
+        final Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        } catch (IOException e) {
+            LOG.debug("ignoring unreadable stack state " + file, e);
+            return null;
+        }
+        if (!fingerprint.equals(properties.getProperty("fingerprint"))) {
+            return null;
+        }
+        return new HashSet<>(Splitter.on(',').omitEmptyStrings().splitToList(properties.getProperty("containers", "")));
+    }
+
+    void write(String fingerprint, Collection<String> containerIds) {
+        final Properties properties = new Properties();
+        properties.setProperty("fingerprint", fingerprint);
+        properties.setProperty("containers", Joiner.on(',').join(containerIds));
+        final File tmp = new File(file.getPath() + ".tmp");
+        //noinspection ResultOfMethodCallIgnored
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            properties.store(out, null);
+        } catch (IOException e) {
+            LOG.warn("failed to write stack state " + file + ": " + e.getMessage());
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            return;
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        if (!tmp.renameTo(file)) {
+            LOG.warn("failed to move " + tmp + " to " + file);
+        }
+    }
+
+    void forget() {
+        if (file.exists() && !file.delete()) {
+            LOG.warn("failed to delete stack state " + file);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.alexecollins.docker.orchestration;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * On-disk record of the Dockerfiles that passed validation, so that unchanged Dockerfiles are not validated again.
+ * <p/>
+ * Entries are keyed by the content of the Dockerfile and its {@code .dockerignore}, and the version of the validation
+ * rules. Only successes are recorded, so an invalid Dockerfile is always validated, and its errors logged, again.
+ */
+class ValidationCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ValidationCache.class);
+    private static final int VERSION = 1;
+
+    private final File file;
+    private Set<String> keys;
+
+    ValidationCache(File file) {
+        if (file == null) {
+            throw new IllegalArgumentException("file is null");
+        }
+        this.file = file;
+    }
+
+    static String key(File dockerFile, File dockerIgnoreFile, int rulesVersion) throws IOException {
+        final Hasher hasher = Hashing.sha1().newHasher();
+        hasher.putInt(rulesVersion);
+        for (File file : new File[]{dockerFile, dockerIgnoreFile}) {
+            if (file.isFile()) {
+                hasher.putByte((byte) 1).putBytes(Files.hash(file, Hashing.sha1()).asBytes());
+            } else {
+                hasher.putByte((byte) 0);
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    synchronized boolean contains(String key) {
+        return keys().contains(key);
+    }
+
+    synchronized void add(String key) {
+        if (!keys().add(key)) {
+            return;
+        }
+        final List<String> lines = new ArrayList<>();
+        lines.add("version=" + VERSION);
+        lines.addAll(keys);
+        final File tmp = new File(file.getPath() + ".tmp");
+        //noinspection ResultOfMethodCallIgnored
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        try {
+            FileUtils.writeLines(tmp, Charsets.UTF_8.name(), lines);
+        } catch (IOException e) {
+            LOG.warn("failed to write validation cache " + file + ": " + e.getMessage());
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            return;
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        if (!tmp.renameTo(file)) {
+            LOG.warn("failed to move " + tmp + " to " + file);
+        }
+    }
+
+    private Set<String> keys() {
+        if (keys == null) {
+            keys = new HashSet<>();
+            if (file.isFile()) {
+                try {
+                    final List<String> lines = FileUtils.readLines(file, Charsets.UTF_8.name());
+                    if (!lines.isEmpty() && lines.get(0).equals("version=" + VERSION)) {
+                        keys.addAll(lines.subList(1, lines.size()));
+                    }
+                } catch (IOException e) {
+                    LOG.debug("ignoring unreadable validation cache " + file, e);
+                }
+            }
+        }
+        return keys;
+    }
+}
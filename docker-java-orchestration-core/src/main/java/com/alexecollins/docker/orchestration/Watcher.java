@@ -0,0 +1,189 @@
+package com.alexecollins.docker.orchestration;
+
+import com.alexecollins.docker.orchestration.model.Id;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the files of each definition, i.e. its source folder and the files it adds, and reports which definitions'
+ * files have changed once they have stopped changing.
+ * <p/>
+ * A {@link WatchService} only watches a single folder, so every folder under a watched folder is watched, and a file is
+ * watched via its folder.
+ */
+final class Watcher implements Closeable {
+
+    private final WatchService watchService;
+    /**
+     * The folder each key watches.
+     */
+    private final Map<WatchKey, Path> folders = new HashMap<>();
+    /**
+     * The definitions each watched file or folder belongs to.
+     */
+    private final Map<Path, Set<Id>> paths = new LinkedHashMap<>();
+
+    Watcher() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * @param path A file or folder that belongs to the definition. If it does not exist (yet), the nearest folder it
+     *             would be in that does is watched for it to be created.
+     */
+    void watch(Id id, Path path) throws IOException {
+        path = path.toAbsolutePath().normalize();
+        Set<Id> ids = paths.get(path);
+        if (ids == null) {
+            ids = new LinkedHashSet<>();
+            paths.put(path, ids);
+        }
+        ids.add(id);
+        register(path);
+    }
+
+    private void register(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            registerTree(path);
+        } else if (Files.exists(path)) {
+            registerFolder(path.getParent());
+        } else {
+            Path ancestor = path.getParent();
+            while (ancestor != null && !Files.isDirectory(ancestor)) {
+                ancestor = ancestor.getParent();
+            }
+            if (ancestor != null) {
+                registerFolder(ancestor);
+            }
+        }
+    }
+
+    private void registerTree(Path folder) throws IOException {
+        Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                registerFolder(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void registerFolder(Path folder) throws IOException {
+        for (Map.Entry<WatchKey, Path> entry : folders.entrySet()) {
+            // the key of a deleted folder may not have been cancelled yet, and does not watch a re-created one
+            if (entry.getValue().equals(folder) && entry.getKey().isValid()) {
+                return;
+            }
+        }
+        folders.put(folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), folder);
+    }
+
+    /**
+     * Registers the watched paths in the folder again, e.g. once it has been created or deleted.
+     *
+     * @param changed      Added to with the definitions of the paths that exist, as they may have been created before
+     *                     they could be watched.
+     * @param changedPaths Added to with those paths.
+     */
+    private void reregister(Path folder, Set<Id> changed, Set<Path> changedPaths) throws IOException {
+        for (Map.Entry<Path, Set<Id>> entry : paths.entrySet()) {
+            if (entry.getKey().startsWith(folder)) {
+                register(entry.getKey());
+                if (Files.exists(entry.getKey())) {
+                    changed.addAll(entry.getValue());
+                    changedPaths.add(entry.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for a change, and then until there has been no change for the quiet period.
+     *
+     * @return The definitions with changed files.
+     */
+    Set<Id> take(long quietMillis) throws InterruptedException, IOException {
+        return take(quietMillis, new HashSet<Path>());
+    }
+
+    /**
+     * @param changedPaths Added to with the watched paths that changed, or are in a folder that changed.
+     */
+    Set<Id> take(long quietMillis, Set<Path> changedPaths) throws InterruptedException, IOException {
+        final Set<Id> changed = new LinkedHashSet<>();
+        WatchKey key = watchService.take();
+        while (key != null) {
+            collect(key, changed, changedPaths);
+            key = watchService.poll(quietMillis, TimeUnit.MILLISECONDS);
+        }
+        return changed;
+    }
+
+    private void collect(WatchKey key, Set<Id> changed, Set<Path> changedPaths) throws IOException {
+        final Path folder = folders.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (folder == null || event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // some changes are lost, so assume everything has changed
+                for (Set<Id> ids : paths.values()) {
+                    changed.addAll(ids);
+                }
+                changedPaths.addAll(paths.keySet());
+                continue;
+            }
+            final Path path = folder.resolve((Path) event.context());
+            final Set<Id> ids = ids(path);
+            changed.addAll(ids);
+            if (!ids.isEmpty()) {
+                changedPaths.add(path);
+            }
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                if (!ids.isEmpty()) {
+                    registerTree(path);
+                }
+                reregister(path, changed, changedPaths);
+            }
+        }
+        if (!key.reset() && folder != null) {
+            // the folder has been deleted, so watch for it to be created again
+            folders.remove(key);
+            reregister(folder, changed, changedPaths);
+        }
+    }
+
+    /**
+     * @return The definitions the path belongs to, i.e. those watching it or a folder it is in.
+     */
+    private Set<Id> ids(Path path) {
+        final Set<Id> ids = new HashSet<>();
+        for (Map.Entry<Path, Set<Id>> entry : paths.entrySet()) {
+            if (path.startsWith(entry.getKey())) {
+                ids.addAll(entry.getValue());
+            }
+        }
+        return ids;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
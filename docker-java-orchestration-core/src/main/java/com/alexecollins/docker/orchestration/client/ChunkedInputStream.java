@@ -0,0 +1,77 @@
+package com.alexecollins.docker.orchestration.client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes a "Transfer-Encoding: chunked" body.
+ */
+final class ChunkedInputStream extends InputStream {
+    private final InputStream in;
+    private int remaining;
+    private boolean eof;
+
+    ChunkedInputStream(InputStream in) {
+        this.in = in;
+    }
+
+    private boolean nextChunk() throws IOException {
+        if (eof) {
+            return false;
+        }
+        if (remaining == 0) {
+            String line = HttpConnection.readLine(in);
+            final int extension = line.indexOf(';');
+            if (extension >= 0) {
+                line = line.substring(0, extension);
+            }
+            remaining = Integer.parseInt(line.trim(), 16);
+            if (remaining == 0) {
+                // trailers
+                //noinspection StatementWithEmptyBody
+                while (!HttpConnection.readLine(in).isEmpty()) {
+                }
+                eof = true;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextChunk()) {
+            return -1;
+        }
+        final int b = in.read();
+        if (b < 0) {
+            throw new EOFException("connection closed in chunk");
+        }
+        chunkRead(1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextChunk()) {
+            return -1;
+        }
+        final int n = in.read(b, off, Math.min(len, remaining));
+        if (n < 0) {
+            throw new EOFException("connection closed in chunk");
+        }
+        chunkRead(n);
+        return n;
+    }
+
+    private void chunkRead(int n) throws IOException {
+        remaining -= n;
+        if (remaining == 0) {
+            HttpConnection.readLine(in);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.alexecollins.docker.orchestration.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A minimal HTTP/1.1 client for the daemon, with a pool of kept-alive connections.
+ * <p/>
+ * Request bodies are either bytes, sent with a content length, or a stream, sent chunked. A connection goes back to
+ * the pool once its response body has been read to the end; closing a body early closes its connection.
+ */
+final class HttpClient implements Closeable {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Transport transport;
+    private final int maxIdle;
+    private final Deque<HttpConnection> idle = new ArrayDeque<>();
+    private final AtomicInteger connectionsOpened = new AtomicInteger();
+    private boolean closed;
+
+    HttpClient(Transport transport, int maxIdle) {
+        if (transport == null) {
+            throw new IllegalArgumentException("transport is null");
+        }
+        this.transport = transport;
+        this.maxIdle = maxIdle;
+    }
+
+    private static void writeHead(OutputStream out, String method, String target, Map<String, String> headers) throws IOException {
+        final StringBuilder head = new StringBuilder();
+        head.append(method).append(' ').append(target).append(" HTTP/1.1\r\n");
+        head.append("Host: docker\r\n");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes(HttpConnection.ASCII));
+    }
+
+    private static void writeChunked(OutputStream out, InputStream body) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = body.read(buffer)) > 0) {
+            out.write((Integer.toHexString(n) + "\r\n").getBytes(HttpConnection.ASCII));
+            out.write(buffer, 0, n);
+            out.write("\r\n".getBytes(HttpConnection.ASCII));
+        }
+        out.write("0\r\n\r\n".getBytes(HttpConnection.ASCII));
+    }
+
+    /**
+     * @param body Null, bytes or an input stream.
+     */
+    HttpResponse execute(String method, String target, Map<String, String> headers, Object body) throws IOException {
+        while (true) {
+            final HttpConnection connection = acquire();
+            final boolean reused = connection.markUsed();
+            try {
+                return send(connection, method, target, headers, body);
+            } catch (IOException e) {
+                connection.close();
+                // the daemon may have closed an idle connection, retry on a new one if the body can be sent again
+                if (!reused || body instanceof InputStream) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private HttpResponse send(HttpConnection connection, String method, String target, Map<String, String> headers, Object body) throws IOException {
+        final Map<String, String> allHeaders = new HashMap<>(headers);
+        if (body instanceof byte[]) {
+            allHeaders.put("Content-Length", String.valueOf(((byte[]) body).length));
+        } else if (body instanceof InputStream) {
+            allHeaders.put("Transfer-Encoding", "chunked");
+        } else if (!method.equals("GET") && !method.equals("DELETE")) {
+            allHeaders.put("Content-Length", "0");
+        }
+        final OutputStream out = connection.out();
+        writeHead(out, method, target, allHeaders);
+        if (body instanceof byte[]) {
+            out.write((byte[]) body);
+        } else if (body instanceof InputStream) {
+            writeChunked(out, (InputStream) body);
+        }
+        out.flush();
+
+        final InputStream in = connection.in();
+        final String statusLine = HttpConnection.readLine(in);
+        final String[] parts = statusLine.split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+            throw new IOException("bad status line \"" + statusLine + "\"");
+        }
+        final int status = Integer.parseInt(parts[1]);
+        final Map<String, String> responseHeaders = new HashMap<>();
+        String line;
+        while (!(line = HttpConnection.readLine(in)).isEmpty()) {
+            final int colon = line.indexOf(':');
+            if (colon > 0) {
+                responseHeaders.put(line.substring(0, colon).trim().toLowerCase(Locale.ENGLISH), line.substring(colon + 1).trim());
+            }
+        }
+
+        final boolean keepAlive = !"close".equalsIgnoreCase(responseHeaders.get("connection"));
+        final String contentLength = responseHeaders.get("content-length");
+        final InputStream responseBody;
+        if (status == 204 || status == 304 || method.equals("HEAD")) {
+            responseBody = new ByteArrayInputStream(new byte[0]);
+            release(connection, keepAlive);
+        } else if ("chunked".equalsIgnoreCase(responseHeaders.get("transfer-encoding"))) {
+            responseBody = new Body(new ChunkedInputStream(in), connection, keepAlive);
+        } else if (contentLength != null) {
+            final long length = Long.parseLong(contentLength);
+            if (length == 0) {
+                responseBody = new ByteArrayInputStream(new byte[0]);
+                release(connection, keepAlive);
+            } else {
+                responseBody = new Body(new LimitedInputStream(in, length), connection, keepAlive);
+            }
+        } else {
+            // until the daemon closes the connection
+            responseBody = new Body(in, connection, false);
+        }
+        return new HttpResponse(status, responseHeaders, responseBody);
+    }
+
+    private HttpConnection acquire() throws IOException {
+        synchronized (idle) {
+            if (closed) {
+                throw new IOException("client is closed");
+            }
+            final HttpConnection connection = idle.pollFirst();
+            if (connection != null) {
+                return connection;
+            }
+        }
+        connectionsOpened.incrementAndGet();
+        return new HttpConnection(transport.connect());
+    }
+
+    private void release(HttpConnection connection, boolean reusable) {
+        if (reusable) {
+            synchronized (idle) {
+                if (!closed && idle.size() < maxIdle) {
+                    idle.addFirst(connection);
+                    return;
+                }
+            }
+        }
+        connection.close();
+    }
+
+    /**
+     * @return The number of connections opened so far.
+     */
+    int getConnectionsOpened() {
+        return connectionsOpened.get();
+    }
+
+    @Override
+    public void close() {
+        synchronized (idle) {
+            closed = true;
+            for (HttpConnection connection : idle) {
+                connection.close();
+            }
+            idle.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "HttpClient{" + transport + '}';
+    }
+
+    private static final class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+
+        private LimitedInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            final int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            final int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() {
+            // the connection is closed or released by the body
+        }
+    }
+
+    /**
+     * Releases the connection at the end of the body, or closes it if the body is closed early.
+     */
+    private final class Body extends FilterInputStream {
+        private final HttpConnection connection;
+        private final boolean keepAlive;
+        private boolean done;
+
+        private Body(InputStream in, HttpConnection connection, boolean keepAlive) {
+            super(in);
+            this.connection = connection;
+            this.keepAlive = keepAlive;
+        }
+
+        private int eof(int n) {
+            if (n < 0 && !done) {
+                done = true;
+                release(connection, keepAlive);
+            }
+            return n;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return done ? -1 : eof(super.read());
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return done ? -1 : eof(super.read(b, off, len));
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            return done ? 0 : super.skip(n);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return done ? 0 : super.available();
+        }
+
+        @Override
+        public void close() {
+            if (!done) {
+                done = true;
+                connection.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.alexecollins.docker.orchestration.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.Charset;
+
+/**
+ * A single HTTP/1.1 connection to the daemon.
+ */
+final class HttpConnection implements Closeable {
+    static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private boolean used;
+
+    HttpConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new BufferedInputStream(socket.getInputStream());
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    static String readLine(InputStream in) throws IOException {
+        final ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                throw new EOFException("connection closed");
+            }
+            line.write(b);
+        }
+        final String s = new String(line.toByteArray(), ASCII);
+        return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s;
+    }
+
+    InputStream in() {
+        return in;
+    }
+
+    OutputStream out() {
+        return out;
+    }
+
+    /**
+     * @return True if a request has already been sent on this connection, i.e. it came from the pool.
+     */
+    boolean markUsed() {
+        final boolean wasUsed = used;
+        used = true;
+        return wasUsed;
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // nothing to do
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.alexecollins.docker.orchestration.client;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * The status, headers and streaming body of a response. The body must be read to the end, or closed.
+ */
+final class HttpResponse {
+    private final int status;
+    private final Map<String, String> headers;
+    private final InputStream body;
+
+    HttpResponse(int status, Map<String, String> headers, InputStream body) {
+        this.status = status;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    int getStatus() {
+        return status;
+    }
+
+    /**
+     * @param name Lower case.
+     */
+    String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    InputStream getBody() {
+        return body;
+    }
+
+    String bodyAsString() throws IOException {
+        try (InputStream in = body) {
+            return new String(IOUtils.toByteArray(in), "UTF-8");
+        }
+    }
+}
@@ -0,0 +1,672 @@
+package com.alexecollins.docker.orchestration.client;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.dockerjava.api.BadRequestException;
+import com.github.dockerjava.api.ConflictException;
+import com.github.dockerjava.api.DockerClientException;
+import com.github.dockerjava.api.DockerException;
+import com.github.dockerjava.api.InternalServerErrorException;
+import com.github.dockerjava.api.NotAcceptableException;
+import com.github.dockerjava.api.NotFoundException;
+import com.github.dockerjava.api.NotModifiedException;
+import com.github.dockerjava.api.UnauthorizedException;
+import com.github.dockerjava.api.command.AttachContainerCmd;
+import com.github.dockerjava.api.command.AuthCmd;
+import com.github.dockerjava.api.command.BuildImageCmd;
+import com.github.dockerjava.api.command.CommitCmd;
+import com.github.dockerjava.api.command.ContainerDiffCmd;
+import com.github.dockerjava.api.command.CopyFileFromContainerCmd;
+import com.github.dockerjava.api.command.CreateContainerCmd;
+import com.github.dockerjava.api.command.CreateContainerResponse;
+import com.github.dockerjava.api.command.CreateImageCmd;
+import com.github.dockerjava.api.command.DockerCmdExecFactory;
+import com.github.dockerjava.api.command.EventsCmd;
+import com.github.dockerjava.api.command.ExecCreateCmd;
+import com.github.dockerjava.api.command.ExecStartCmd;
+import com.github.dockerjava.api.command.InfoCmd;
+import com.github.dockerjava.api.command.InspectContainerCmd;
+import com.github.dockerjava.api.command.InspectContainerResponse;
+import com.github.dockerjava.api.command.InspectExecCmd;
+import com.github.dockerjava.api.command.InspectImageCmd;
+import com.github.dockerjava.api.command.InspectImageResponse;
+import com.github.dockerjava.api.command.KillContainerCmd;
+import com.github.dockerjava.api.command.ListContainersCmd;
+import com.github.dockerjava.api.command.ListImagesCmd;
+import com.github.dockerjava.api.command.LogContainerCmd;
+import com.github.dockerjava.api.command.PauseContainerCmd;
+import com.github.dockerjava.api.command.PingCmd;
+import com.github.dockerjava.api.command.PullImageCmd;
+import com.github.dockerjava.api.command.PushImageCmd;
+import com.github.dockerjava.api.command.RemoveContainerCmd;
+import com.github.dockerjava.api.command.RemoveImageCmd;
+import com.github.dockerjava.api.command.RestartContainerCmd;
+import com.github.dockerjava.api.command.SaveImageCmd;
+import com.github.dockerjava.api.command.SearchImagesCmd;
+import com.github.dockerjava.api.command.StartContainerCmd;
+import com.github.dockerjava.api.command.StopContainerCmd;
+import com.github.dockerjava.api.command.TagImageCmd;
+import com.github.dockerjava.api.command.TopContainerCmd;
+import com.github.dockerjava.api.command.UnpauseContainerCmd;
+import com.github.dockerjava.api.command.VersionCmd;
+import com.github.dockerjava.api.command.WaitContainerCmd;
+import com.github.dockerjava.api.model.Container;
+import com.github.dockerjava.api.model.EventStreamItem;
+import com.github.dockerjava.api.model.Image;
+import com.github.dockerjava.api.model.Info;
+import com.github.dockerjava.api.model.PushEventStreamItem;
+import com.github.dockerjava.api.model.Version;
+import com.github.dockerjava.core.DockerClientConfig;
+import com.google.common.io.BaseEncoding;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A lightweight alternative to docker-java's Jersey based implementation, that talks HTTP/1.1 to the daemon directly
+ * over a Unix socket (or plain TCP) and so avoids loading and initialising Jersey.
+ * <p/>
+ * Every command the orchestrator uses is supported, as are the other simple commands: ping, version and info;
+ * listing, inspecting, creating, starting, stopping, restarting, killing, pausing, waiting for and removing containers,
+ * and getting their logs; and listing, inspecting, removing, tagging, building, pulling and pushing images. Creating any
+ * other command (e.g. attaching to a container, exec, or events) throws an {@link UnsupportedOperationException}. TLS
+ * is not supported.
+ * <p/>
+ * Use with {@code DockerClientImpl.getInstance(config).withDockerCmdExecFactory(new ThinDockerCmdExecFactory())}.
+ */
+public class ThinDockerCmdExecFactory implements DockerCmdExecFactory {
+    private static final Map<String, String> JSON = Collections.singletonMap("Content-Type", "application/json");
+
+    private final int connectTimeout;
+    // the body is drained and closed by us, closing early would drop the connection rather than re-use it
+    private final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false);
+    private HttpClient client;
+    private String prefix;
+
+    public ThinDockerCmdExecFactory() {
+        this(0);
+    }
+
+    /**
+     * @param connectTimeout Milliseconds, zero for none.
+     */
+    public ThinDockerCmdExecFactory(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Container names start with a slash, so ids are encoded like any other path segment.
+     */
+    private static String segment(String value) {
+        return encode(value).replace("+", "%20");
+    }
+
+    private static String flag(boolean value) {
+        return value ? "1" : "0";
+    }
+
+    private static UnsupportedOperationException unsupported(String command) {
+        return new UnsupportedOperationException(command + " is not supported by the thin client");
+    }
+
+    @Override
+    public void init(DockerClientConfig config) {
+        if (config == null) {
+            throw new IllegalArgumentException("config is null");
+        }
+        final Integer readTimeout = config.getReadTimeout();
+        final Integer maxConnections = config.getMaxTotalConnections();
+        client = new HttpClient(
+                Transport.of(config.getUri(), connectTimeout, readTimeout != null ? readTimeout : 0),
+                maxConnections != null ? maxConnections : 10);
+        prefix = config.getVersion() != null ? "/v" + config.getVersion() : "";
+    }
+
+    HttpClient getClient() {
+        return client;
+    }
+
+    private Path path(String path) {
+        return new Path(prefix + path);
+    }
+
+    private HttpResponse execute(String method, Path path, Map<String, String> headers, Object body) {
+        if (client == null) {
+            throw new IllegalStateException("not initialised");
+        }
+        final HttpResponse response;
+        try {
+            response = client.execute(method, path.toString(), headers, body);
+        } catch (IOException e) {
+            throw new DockerClientException(method + " " + path + " failed: " + e.getMessage(), e);
+        }
+        final int status = response.getStatus();
+        if (status >= 200 && status < 300) {
+            return response;
+        }
+        String message;
+        try {
+            message = response.bodyAsString();
+        } catch (IOException e) {
+            message = e.getMessage();
+        }
+        switch (status) {
+            case 304:
+                throw new NotModifiedException(message);
+            case 400:
+                throw new BadRequestException(message);
+            case 401:
+                throw new UnauthorizedException(message);
+            case 404:
+                throw new NotFoundException(message);
+            case 406:
+                throw new NotAcceptableException(message);
+            case 409:
+                throw new ConflictException(message);
+            case 500:
+                throw new InternalServerErrorException(message);
+            default:
+                throw new DockerException(message, status);
+        }
+    }
+
+    private <T> T json(HttpResponse response, TypeReference<T> type) {
+        try (InputStream in = response.getBody()) {
+            final T value = mapper.readValue(in, type);
+            // read to the end, so the connection can be re-used
+            //noinspection StatementWithEmptyBody
+            while (in.read() >= 0) {
+            }
+            return value;
+        } catch (IOException e) {
+            throw new DockerClientException("failed to read response: " + e.getMessage(), e);
+        }
+    }
+
+    private Void discard(HttpResponse response) {
+        try (InputStream in = response.getBody()) {
+            //noinspection StatementWithEmptyBody
+            while (in.read() >= 0) {
+            }
+            return null;
+        } catch (IOException e) {
+            throw new DockerClientException("failed to read response: " + e.getMessage(), e);
+        }
+    }
+
+    private byte[] toJson(Object value) {
+        try {
+            return mapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new DockerClientException("failed to write request: " + e.getMessage(), e);
+        }
+    }
+
+    private String base64Json(Object value) {
+        return BaseEncoding.base64().encode(toJson(value));
+    }
+
+    private <T> List<T> items(InputStream in, Class<T> type) throws IOException {
+        final List<T> items = new ArrayList<>();
+        try (InputStream body = in) {
+            final Iterator<T> iterator = mapper.reader(type).readValues(body);
+            while (iterator.hasNext()) {
+                items.add(iterator.next());
+            }
+        }
+        return items;
+    }
+
+    @Override
+    public ListContainersCmd.Exec createListContainersCmdExec() {
+        return new ListContainersCmd.Exec() {
+            @Override
+            public List<Container> exec(ListContainersCmd command) {
+                final Path path = path("/containers/json")
+                        .query("all", flag(command.hasShowAllEnabled()))
+                        .query("since", command.getSinceId())
+                        .query("before", command.getBeforeId())
+                        .query("size", flag(command.hasShowSizeEnabled()));
+                if (command.getLimit() >= 0) {
+                    path.query("limit", String.valueOf(command.getLimit()));
+                }
+                return json(execute("GET", path, JSON, null), new TypeReference<List<Container>>() {
+                });
+            }
+        };
+    }
+
+    @Override
+    public InspectContainerCmd.Exec createInspectContainerCmdExec() {
+        return new InspectContainerCmd.Exec() {
+            @Override
+            public InspectContainerResponse exec(InspectContainerCmd command) {
+                return json(execute("GET", path("/containers/" + segment(command.getContainerId()) + "/json"), JSON, null), new TypeReference<InspectContainerResponse>() {
+                });
+            }
+        };
+    }
+
+    @Override
+    public CreateContainerCmd.Exec createCreateContainerCmdExec() {
+        return new CreateContainerCmd.Exec() {
+            @Override
+            public CreateContainerResponse exec(CreateContainerCmd command) {
+                final Path path = path("/containers/create").query("name", command.getName());
+                return json(execute("POST", path, JSON, toJson(command)), new TypeReference<CreateContainerResponse>() {
+                });
+            }
+        };
+    }
+
+    @Override
+    public StartContainerCmd.Exec createStartContainerCmdExec() {
+        return new StartContainerCmd.Exec() {
+            @Override
+            public Void exec(StartContainerCmd command) {
+                return discard(execute("POST", path("/containers/" + segment(command.getContainerId()) + "/start"), JSON, toJson(command)));
+            }
+        };
+    }
+
+    @Override
+    public StopContainerCmd.Exec createStopContainerCmdExec() {
+        return new StopContainerCmd.Exec() {
+            @Override
+            public Void exec(StopContainerCmd command) {
+                final Path path = path("/containers/" + segment(command.getContainerId()) + "/stop").query("t", String.valueOf(command.getTimeout()));
+                return discard(execute("POST", path, JSON, null));
+            }
+        };
+    }
+
+    @Override
+    public RemoveContainerCmd.Exec createRemoveContainerCmdExec() {
+        return new RemoveContainerCmd.Exec() {
+            @Override
+            public Void exec(RemoveContainerCmd command) {
+                final Path path = path("/containers/" + segment(command.getContainerId()))
+                        .query("v", flag(command.hasRemoveVolumesEnabled()))
+                        .query("force", flag(command.hasForceEnabled()));
+                return discard(execute("DELETE", path, JSON, null));
+            }
+        };
+    }
+
+    @Override
+    public LogContainerCmd.Exec createLogContainerCmdExec() {
+        return new LogContainerCmd.Exec() {
+            @Override
+            public InputStream exec(LogContainerCmd command) {
+                final Path path = path("/containers/" + segment(command.getContainerId()) + "/logs")
+                        .query("timestamps", flag(command.hasTimestampsEnabled()))
+                        .query("stdout", flag(command.hasStdoutEnabled()))
+                        .query("stderr", flag(command.hasStderrEnabled()))
+                        .query("follow", flag(command.hasFollowStreamEnabled()))
+                        .query("tail", command.getTail() < 0 ? "all" : String.valueOf(command.getTail()));
+                return execute("GET", path, Collections.<String, String>emptyMap(), null).getBody();
+            }
+        };
+    }
+
+    @Override
+    public ListImagesCmd.Exec createListImagesCmdExec() {
+        return new ListImagesCmd.Exec() {
+            @Override
+            public List<Image> exec(ListImagesCmd command) {
+                final Path path = path("/images/json")
+                        .query("all", flag(command.hasShowAllEnabled()))
+                        .query("filters", command.getFilters());
+                return json(execute("GET", path, JSON, null), new TypeReference<List<Image>>() {
+                });
+            }
+        };
+    }
+
+    @Override
+    public RemoveImageCmd.Exec createRemoveImageCmdExec() {
+        return new RemoveImageCmd.Exec() {
+            @Override
+            public Void exec(RemoveImageCmd command) {
+                final Path path = path("/images/" + segment(command.getImageId()))
+                        .query("force", flag(command.hasForceEnabled()))
+                        .query("noprune", flag(command.hasNoPruneEnabled()));
+                return discard(execute("DELETE", path, JSON, null));
+            }
+        };
+    }
+
+    @Override
+    public TagImageCmd.Exec createTagImageCmdExec() {
+        return new TagImageCmd.Exec() {
+            @Override
+            public Void exec(TagImageCmd command) {
+                final Path path = path("/images/" + segment(command.getImageId()) + "/tag")
+                        .query("repo", command.getRepository())
+                        .query("tag", command.getTag())
+                        .query("force", flag(command.hasForceEnabled()));
+                return discard(execute("POST", path, JSON, null));
+            }
+        };
+    }
+
+    @Override
+    public BuildImageCmd.Exec createBuildImageCmdExec() {
+        return new BuildImageCmd.Exec() {
+            @Override
+            public BuildImageCmd.Response exec(BuildImageCmd command) {
+                final Path path = path("/build").query("t", command.getTag());
+                if (command.hasNoCacheEnabled()) {
+                    path.query("nocache", "true");
+                }
+                if (!command.hasRemoveEnabled()) {
+                    path.query("rm", "false");
+                }
+                if (command.isQuiet()) {
+                    path.query("q", "true");
+                }
+                if (command.hasPullEnabled()) {
+                    path.query("pull", "true");
+                }
+                path.query("dockerfile", command.getPathToDockerfile());
+                final Map<String, String> headers = new HashMap<>();
+                headers.put("Content-Type", "application/tar");
+                if (command.getBuildAuthConfigs() != null) {
+                    headers.put("X-Registry-Config", base64Json(command.getBuildAuthConfigs()));
+                }
+                final InputStream body = execute("POST", path, headers, command.getTarInputStream()).getBody();
+                return new BuildImageCmd.Response() {
+                    @Override
+                    public Iterable<EventStreamItem> getItems() throws IOException {
+                        return items(body, EventStreamItem.class);
+                    }
+
+                    @Override
+                    public int read() throws IOException {
+                        return body.read();
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        return body.read(b, off, len);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        body.close();
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public PushImageCmd.Exec createPushImageCmdExec() {
+        return new PushImageCmd.Exec() {
+            @Override
+            public PushImageCmd.Response exec(PushImageCmd command) {
+                final Path path = path("/images/" + segment(command.getName()) + "/push").query("tag", command.getTag());
+                final Map<String, String> headers = new HashMap<>(JSON);
+                final byte[] auth = command.getAuthConfig() != null ? toJson(command.getAuthConfig()) : new byte[0];
+                if (command.getAuthConfig() != null) {
+                    headers.put("X-Registry-Auth", base64Json(command.getAuthConfig()));
+                }
+                final InputStream body = execute("POST", path, headers, auth).getBody();
+                return new PushImageCmd.Response() {
+                    @Override
+                    public Iterable<PushEventStreamItem> getItems() throws IOException {
+                        return items(body, PushEventStreamItem.class);
+                    }
+
+                    @Override
+                    public int read() throws IOException {
+                        return body.read();
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        return body.read(b, off, len);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        body.close();
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public AuthCmd.Exec createAuthCmdExec() {
+        throw unsupported("auth");
+    }
+
+    @Override
+    public InfoCmd.Exec createInfoCmdExec() {
+        return new InfoCmd.Exec() {
+            @Override
+            public Info exec(InfoCmd command) {
+                return json(execute("GET", path("/info"), JSON, null), new TypeReference<Info>() {
+                });
+            }
+        };
+    }
+
+    @Override
+    public PingCmd.Exec createPingCmdExec() {
+        return new PingCmd.Exec() {
+            @Override
+            public Void exec(PingCmd command) {
+                return discard(execute("GET", path("/_ping"), Collections.<String, String>emptyMap(), null));
+            }
+        };
+    }
+
+    @Override
+    public ExecCreateCmd.Exec createExecCmdExec() {
+        throw unsupported("exec");
+    }
+
+    @Override
+    public VersionCmd.Exec createVersionCmdExec() {
+        return new VersionCmd.Exec() {
+            @Override
+            public Version exec(VersionCmd command) {
+                return json(execute("GET", path("/version"), JSON, null), new TypeReference<Version>() {
+                });
+            }
+        };
+    }
+
+    @Override
+    public PullImageCmd.Exec createPullImageCmdExec() {
+        return new PullImageCmd.Exec() {
+            @Override
+            public InputStream exec(PullImageCmd command) {
+                final Path path = path("/images/create")
+                        .query("fromImage", command.getRepository())
+                        .query("tag", command.getTag())
+                        .query("registry", command.getRegistry());
+                final Map<String, String> headers = new HashMap<>(JSON);
+                if (command.getAuthConfig() != null) {
+                    headers.put("X-Registry-Auth", base64Json(command.getAuthConfig()));
+                }
+                // the progress of the pull, which the caller reads to the end
+                return execute("POST", path, headers, null).getBody();
+            }
+        };
+    }
+
+    @Override
+    public SaveImageCmd.Exec createSaveImageCmdExec() {
+        throw unsupported("save image");
+    }
+
+    @Override
+    public CreateImageCmd.Exec createCreateImageCmdExec() {
+        throw unsupported("create image");
+    }
+
+    @Override
+    public SearchImagesCmd.Exec createSearchImagesCmdExec() {
+        throw unsupported("search images");
+    }
+
+    @Override
+    public InspectImageCmd.Exec createInspectImageCmdExec() {
+        return new InspectImageCmd.Exec() {
+            @Override
+            public InspectImageResponse exec(InspectImageCmd command) {
+                return json(execute("GET", path("/images/" + segment(command.getImageId()) + "/json"), JSON, null), new TypeReference<InspectImageResponse>() {
+                });
+            }
+        };
+    }
+
+    @Override
+    public WaitContainerCmd.Exec createWaitContainerCmdExec() {
+        return new WaitContainerCmd.Exec() {
+            @Override
+            public Integer exec(WaitContainerCmd command) {
+                final Map<String, Integer> status = json(execute("POST", path("/containers/" + segment(command.getContainerId()) + "/wait"), JSON, null), new TypeReference<Map<String, Integer>>() {
+                });
+                return status.get("StatusCode");
+            }
+        };
+    }
+
+    @Override
+    public AttachContainerCmd.Exec createAttachContainerCmdExec() {
+        throw unsupported("attach container");
+    }
+
+    @Override
+    public ExecStartCmd.Exec createExecStartCmdExec() {
+        throw unsupported("exec start");
+    }
+
+    @Override
+    public InspectExecCmd.Exec createInspectExecCmdExec() {
+        throw unsupported("inspect exec");
+    }
+
+    @Override
+    public CopyFileFromContainerCmd.Exec createCopyFileFromContainerCmdExec() {
+        throw unsupported("copy file from container");
+    }
+
+    @Override
+    public ContainerDiffCmd.Exec createContainerDiffCmdExec() {
+        throw unsupported("container diff");
+    }
+
+    @Override
+    public KillContainerCmd.Exec createKillContainerCmdExec() {
+        return new KillContainerCmd.Exec() {
+            @Override
+            public Void exec(KillContainerCmd command) {
+                final Path path = path("/containers/" + segment(command.getContainerId()) + "/kill").query("signal", command.getSignal());
+                return discard(execute("POST", path, JSON, null));
+            }
+        };
+    }
+
+    @Override
+    public RestartContainerCmd.Exec createRestartContainerCmdExec() {
+        return new RestartContainerCmd.Exec() {
+            @Override
+            public Void exec(RestartContainerCmd command) {
+                final Path path = path("/containers/" + segment(command.getContainerId()) + "/restart").query("t", String.valueOf(command.getTimeout()));
+                return discard(execute("POST", path, JSON, null));
+            }
+        };
+    }
+
+    @Override
+    public CommitCmd.Exec createCommitCmdExec() {
+        throw unsupported("commit");
+    }
+
+    @Override
+    public TopContainerCmd.Exec createTopContainerCmdExec() {
+        throw unsupported("top container");
+    }
+
+    @Override
+    public PauseContainerCmd.Exec createPauseContainerCmdExec() {
+        return new PauseContainerCmd.Exec() {
+            @Override
+            public Void exec(PauseContainerCmd command) {
+                return discard(execute("POST", path("/containers/" + segment(command.getContainerId()) + "/pause"), JSON, null));
+            }
+        };
+    }
+
+    @Override
+    public UnpauseContainerCmd.Exec createUnpauseContainerCmdExec() {
+        return new UnpauseContainerCmd.Exec() {
+            @Override
+            public Void exec(UnpauseContainerCmd command) {
+                return discard(execute("POST", path("/containers/" + segment(command.getContainerId()) + "/unpause"), JSON, null));
+            }
+        };
+    }
+
+    @Override
+    public EventsCmd.Exec createEventsCmdExec() {
+        throw unsupported("events");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    /**
+     * A request target, with any query parameters that have a value.
+     */
+    private static final class Path {
+        private final StringBuilder target;
+        private boolean hasQuery;
+
+        private Path(String path) {
+            target = new StringBuilder(path);
+        }
+
+        private Path query(String name, String value) {
+            if (value != null) {
+                target.append(hasQuery ? '&' : '?').append(name).append('=').append(encode(value));
+                hasQuery = true;
+            }
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return target.toString();
+        }
+    }
+}
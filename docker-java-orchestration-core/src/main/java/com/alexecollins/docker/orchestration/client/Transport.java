@@ -0,0 +1,59 @@
+package com.alexecollins.docker.orchestration.client;
+
+import org.newsclub.net.unix.AFUNIXSocket;
+import org.newsclub.net.unix.AFUNIXSocketAddress;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+
+/**
+ * Opens sockets to the daemon.
+ */
+abstract class Transport {
+
+    static Transport of(URI uri, final int connectTimeout, final int readTimeout) {
+        switch (uri.getScheme()) {
+            case "unix":
+                final File path = new File(uri.getPath());
+                return new Transport() {
+                    @Override
+                    Socket connect() throws IOException {
+                        final AFUNIXSocket socket = AFUNIXSocket.newInstance();
+                        socket.connect(new AFUNIXSocketAddress(path), connectTimeout);
+                        socket.setSoTimeout(readTimeout);
+                        return socket;
+                    }
+
+                    @Override
+                    public String toString() {
+                        return "unix://" + path;
+                    }
+                };
+            case "tcp":
+            case "http":
+                final InetSocketAddress address = new InetSocketAddress(uri.getHost(), uri.getPort() != -1 ? uri.getPort() : 2375);
+                return new Transport() {
+                    @Override
+                    Socket connect() throws IOException {
+                        final Socket socket = new Socket();
+                        socket.connect(address, connectTimeout);
+                        socket.setSoTimeout(readTimeout);
+                        socket.setTcpNoDelay(true);
+                        return socket;
+                    }
+
+                    @Override
+                    public String toString() {
+                        return "tcp://" + address.getHostString() + ":" + address.getPort();
+                    }
+                };
+            default:
+                throw new IllegalArgumentException("unsupported scheme " + uri.getScheme() + ", expected unix, tcp or http");
+        }
+    }
+
+    abstract Socket connect() throws IOException;
+}
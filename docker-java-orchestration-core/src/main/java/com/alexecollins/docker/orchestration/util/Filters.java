@@ -38,7 +38,7 @@ public final class Filters {
             for (File child : file.listFiles()) {
                 filter(child, fileFilter, properties);
             }
-        } else if (fileFilter.accept(file)) {
+        } else if (fileFilter.accept(file) && hasToken(file)) {
             final File outFile = new File(file + ".tmp");
             try (TokenReplacingReader in = new TokenReplacingReader(new BufferedReader(new FileReader(file)),
                     new PropertiesTokenResolver(properties))) {
@@ -51,6 +51,23 @@ public final class Filters {
         }
     }
 
+    /**
+     * Files without a token are unchanged by filtering, so need not be re-written.
+     */
+    static boolean hasToken(File file) throws IOException {
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            boolean dollar = false;
+            int c;
+            while ((c = in.read()) != -1) {
+                if (dollar && c == '{') {
+                    return true;
+                }
+                dollar = c == '$';
+            }
+        }
+        return false;
+    }
+
     public static String filter(String l, Properties properties) {
         try {
             return IOUtils.toString(new TokenReplacingReader(
@@ -3,18 +3,20 @@ package com.alexecollins.docker.orchestration.util;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.util.regex.Pattern;
 
 /**
  * Filter text files.
  */
 public class TextFileFilter implements FileFilter {
     public static final TextFileFilter INSTANCE = new TextFileFilter();
+    private static final Pattern NAME = Pattern.compile("Dockerfile|.*\\.(cfg|conf|json|properties|sh|txt|xml|yaml|yml)");
 
     private TextFileFilter() {
     }
 
     @Override
     public boolean accept(File pathname) {
-        return pathname.isFile() && pathname.getName().matches("Dockerfile|.*\\.(cfg|conf|json|properties|sh|txt|xml|yaml|yml)");
+        return pathname.isFile() && NAME.matcher(pathname.getName()).matches();
     }
 }
@@ -0,0 +1,101 @@
+package com.alexecollins.docker.orchestration;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.InternalServerErrorException;
+import com.github.dockerjava.api.command.BuildImageCmd;
+import com.github.dockerjava.api.command.ListContainersCmd;
+import com.github.dockerjava.api.model.Container;
+import com.github.dockerjava.api.model.EventStreamItem;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AdaptiveLimitingDockerClientTest {
+
+    private final DockerClient delegate = mock(DockerClient.class);
+    private final ListContainersCmd listContainersCmd = mock(ListContainersCmd.class);
+    private final BuildImageCmd buildImageCmd = mock(BuildImageCmd.class);
+
+    @Before
+    public void setUp() throws Exception {
+        when(delegate.listContainersCmd()).thenReturn(listContainersCmd);
+        when(delegate.buildImageCmd()).thenReturn(buildImageCmd);
+        when(listContainersCmd.exec()).thenReturn(Collections.<Container>emptyList());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void builderRejectsLimitBelowOne() throws Exception {
+        DockerOrchestrator.builder().adaptiveConcurrency(0, 8);
+    }
+
+    @Test
+    public void limitGrowsWhileCommandsSucceed() throws Exception {
+        AdaptiveLimitingDockerClient client = new AdaptiveLimitingDockerClient(delegate, 2, 8);
+        assertEquals(4, client.getLightLimit());
+
+        for (int i = 0; i < 100; i++) {
+            client.getDockerClient().listContainersCmd().exec();
+        }
+
+        assertEquals(8, client.getLightLimit());
+    }
+
+    @Test
+    public void limitHalvesWhenDaemonIsOverloaded() throws Exception {
+        when(listContainersCmd.exec()).thenThrow(new InternalServerErrorException("busy"));
+        AdaptiveLimitingDockerClient client = new AdaptiveLimitingDockerClient(delegate, 2, 8);
+
+        try {
+            client.getDockerClient().listContainersCmd().exec();
+            fail();
+        } catch (InternalServerErrorException ignored) {
+            // expected
+        }
+
+        assertEquals(2, client.getLightLimit());
+    }
+
+    @Test
+    public void buildHoldsItsPermitUntilTheResponseIsRead() throws Exception {
+        when(buildImageCmd.exec()).thenReturn(new BuildImageCmd.Response() {
+            private final InputStream in = IOUtils.toInputStream("Successfully built");
+
+            @Override
+            public Iterable<EventStreamItem> getItems() throws IOException {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public int read() throws IOException {
+                return in.read();
+            }
+        });
+        final AdaptiveLimitingDockerClient client = new AdaptiveLimitingDockerClient(delegate, 1, 1);
+        InputStream response = client.getDockerClient().buildImageCmd().exec();
+
+        Thread second = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                client.getDockerClient().buildImageCmd().exec();
+            }
+        });
+        second.start();
+        second.join(200);
+        assertTrue(second.isAlive());
+
+        assertEquals("Successfully built", IOUtils.toString(response));
+        second.join(5000);
+        assertFalse(second.isAlive());
+    }
+}
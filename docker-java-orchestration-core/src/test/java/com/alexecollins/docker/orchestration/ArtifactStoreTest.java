@@ -0,0 +1,79 @@
+package com.alexecollins.docker.orchestration;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ArtifactStoreTest {
+
+    private static final FileFilter ALL = new FileFilter() {
+        @Override
+        public boolean accept(File file) {
+            return true;
+        }
+    };
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+    private File storeDir;
+    private ArtifactStore store;
+    private File jar;
+
+    @Before
+    public void setUp() throws Exception {
+        storeDir = folder.newFolder("store");
+        store = new ArtifactStore(storeDir);
+        jar = new File(folder.getRoot(), "app.jar");
+        FileUtils.write(jar, "jar");
+    }
+
+    @Test
+    public void sharedArtifactIsStoredOnce() throws Exception {
+        File app = new File(folder.getRoot(), "app/app.jar");
+        File web = new File(folder.getRoot(), "web/app.jar");
+        FileUtils.forceMkdir(app.getParentFile());
+        FileUtils.forceMkdir(web.getParentFile());
+
+        store.materialise(jar, app, ALL);
+        store.materialise(jar, web, ALL);
+
+        assertEquals(1, storeDir.list().length);
+        assertEquals("jar", FileUtils.readFileToString(app));
+        assertTrue(Files.isSameFile(app.toPath(), web.toPath()));
+    }
+
+    @Test
+    public void foldersAreMaterialisedFileByFile() throws Exception {
+        File lib = folder.newFolder("lib");
+        FileUtils.write(new File(lib, "a.jar"), "a");
+        FileUtils.write(new File(lib, "b/b.jar"), "b");
+        File dest = new File(folder.getRoot(), "app/lib");
+
+        store.materialise(lib, dest, ALL);
+
+        assertEquals("a", FileUtils.readFileToString(new File(dest, "a.jar")));
+        assertEquals("b", FileUtils.readFileToString(new File(dest, "b/b.jar")));
+        assertEquals(2, storeDir.list().length);
+    }
+
+    @Test
+    public void cleanRemovesArtifactsNoLongerInAnyContext() throws Exception {
+        File app = new File(folder.getRoot(), "app.jar.link");
+        store.materialise(jar, app, ALL);
+        assertEquals(0, store.clean());
+
+        FileUtils.forceDelete(app);
+
+        assertEquals(1, store.clean());
+        assertEquals(0, storeDir.list().length);
+    }
+}
@@ -0,0 +1,117 @@
+package com.alexecollins.docker.orchestration;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.command.ListContainersCmd;
+import com.github.dockerjava.api.command.StopContainerCmd;
+import com.github.dockerjava.api.model.Container;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CoalescingDockerClientTest {
+
+    private final DockerClient delegate = mock(DockerClient.class);
+    private final ListContainersCmd listContainersCmd = mock(ListContainersCmd.class);
+    private final List<Container> containers = Collections.emptyList();
+
+    @Before
+    public void setUp() throws Exception {
+        when(delegate.listContainersCmd()).thenReturn(listContainersCmd);
+        when(listContainersCmd.withShowAll(anyBoolean())).thenReturn(listContainersCmd);
+        when(listContainersCmd.exec()).thenReturn(containers);
+    }
+
+    @Test
+    public void readsAreCachedForTtl() throws Exception {
+        CoalescingDockerClient client = new CoalescingDockerClient(delegate, 60000);
+        DockerClient docker = client.getDockerClient();
+
+        assertSame(containers, docker.listContainersCmd().withShowAll(true).exec());
+        assertSame(containers, docker.listContainersCmd().withShowAll(true).exec());
+
+        verify(listContainersCmd, times(1)).exec();
+        assertEquals(2, client.getRequests());
+        assertEquals(1, client.getCalls());
+    }
+
+    @Test
+    public void differentArgumentsAreDifferentRequests() throws Exception {
+        CoalescingDockerClient client = new CoalescingDockerClient(delegate, 60000);
+        DockerClient docker = client.getDockerClient();
+
+        docker.listContainersCmd().withShowAll(true).exec();
+        docker.listContainersCmd().withShowAll(false).exec();
+
+        assertEquals(2, client.getCalls());
+    }
+
+    @Test
+    public void mutatingCommandsEmptyTheCache() throws Exception {
+        when(delegate.stopContainerCmd("id")).thenReturn(mock(StopContainerCmd.class));
+        CoalescingDockerClient client = new CoalescingDockerClient(delegate, 60000);
+        DockerClient docker = client.getDockerClient();
+
+        docker.listContainersCmd().exec();
+        docker.stopContainerCmd("id").exec();
+        docker.listContainersCmd().exec();
+
+        assertEquals(2, client.getCalls());
+    }
+
+    @Test
+    public void concurrentReadsShareOneCall() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        when(listContainersCmd.exec()).thenAnswer(new Answer<List<Container>>() {
+            @Override
+            public List<Container> answer(InvocationOnMock invocation) throws Throwable {
+                started.countDown();
+                release.await();
+                return containers;
+            }
+        });
+        CoalescingDockerClient client = new CoalescingDockerClient(delegate, 0);
+        final DockerClient docker = client.getDockerClient();
+        Callable<List<Container>> list = new Callable<List<Container>>() {
+            @Override
+            public List<Container> call() throws Exception {
+                return docker.listContainersCmd().exec();
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<List<Container>> first = executor.submit(list);
+            started.await(5, TimeUnit.SECONDS);
+            Future<List<Container>> second = executor.submit(list);
+            while (client.getRequests() < 2) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            assertSame(containers, first.get());
+            assertSame(containers, second.get());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, client.getCalls());
+    }
+}
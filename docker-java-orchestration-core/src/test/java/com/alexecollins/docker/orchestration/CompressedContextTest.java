@@ -0,0 +1,58 @@
+package com.alexecollins.docker.orchestration;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompressedContextTest {
+
+    private static byte[] context(int length) {
+        final byte[] context = new byte[length];
+        final Random random = new Random(0);
+        for (int i = 0; i < length; i++) {
+            context[i] = (byte) ('a' + random.nextInt(4));
+        }
+        return context;
+    }
+
+    @Test
+    public void smallContextIsNotCompressed() throws Exception {
+        byte[] context = context(100);
+
+        InputStream in = CompressedContext.compress(new ByteArrayInputStream(context), 1024);
+
+        assertArrayEquals(context, IOUtils.toByteArray(in));
+        in.close();
+    }
+
+    @Test
+    public void largeContextIsCompressedInBlocks() throws Exception {
+        byte[] context = context(CompressedContext.BLOCK_SIZE * 5 / 2);
+
+        InputStream in = CompressedContext.compress(new ByteArrayInputStream(context), 1024);
+        byte[] compressed = IOUtils.toByteArray(in);
+        in.close();
+
+        assertTrue(compressed.length < context.length / 2);
+        assertArrayEquals(context, IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+    }
+
+    @Test
+    public void blocksAreWrittenInOrder() throws Exception {
+        byte[] context = context(CompressedContext.BLOCK_SIZE * 3 + 1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        CompressedContext.compress(Arrays.copyOf(context, 10), new ByteArrayInputStream(context, 10, context.length - 10), out, 1);
+
+        assertArrayEquals(context, IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))));
+    }
+}
@@ -0,0 +1,129 @@
+package com.alexecollins.docker.orchestration;
+
+import com.alexecollins.docker.orchestration.model.Conf;
+import com.alexecollins.docker.orchestration.model.Id;
+import com.alexecollins.docker.orchestration.model.Link;
+import com.alexecollins.docker.orchestration.model.Ping;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Pattern;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+public class ConfCacheTest {
+
+    private static final File SRC = new File("src/test/docker-repo-v1");
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static Properties properties(String projectVersion) {
+        Properties properties = new Properties();
+        properties.setProperty("project.version", projectVersion);
+        return properties;
+    }
+
+    @Test
+    public void cachedConfsAreReadBack() throws Exception {
+        Map<Id, Conf> confs = Confs.read(new File("src/test/docker-repo-v2/docker.yml"), properties("1.0"));
+        ConfCache cache = new ConfCache(folder.newFile());
+        String key = ConfCache.key(SRC, properties("1.0"));
+
+        cache.write(key, confs);
+
+        assertEquals(confs, cache.read(key));
+    }
+
+    @Test
+    public void otherKeyMisses() throws Exception {
+        ConfCache cache = new ConfCache(folder.newFile());
+        cache.write(ConfCache.key(SRC, properties("1.0")), Confs.read(new File(SRC, "docker.yml"), properties("1.0")));
+
+        assertNull(cache.read(ConfCache.key(SRC, properties("2.0"))));
+    }
+
+    @Test
+    public void keyOnlyDependsOnReferencedProperties() throws Exception {
+        Properties unrelated = properties("1.0");
+        unrelated.setProperty("unrelated", "foo");
+
+        assertEquals(ConfCache.key(SRC, properties("1.0")), ConfCache.key(SRC, unrelated));
+        assertNotEquals(ConfCache.key(SRC, properties("1.0")), ConfCache.key(SRC, properties("2.0")));
+    }
+
+    @Test
+    public void keyChangesWithContent() throws Exception {
+        File src = folder.newFolder();
+        FileUtils.copyDirectory(SRC, src);
+        String before = ConfCache.key(src, properties("1.0"));
+
+        FileUtils.write(new File(src, "app/conf.yml"), "sleep: 1");
+
+        assertNotEquals(before, ConfCache.key(src, properties("1.0")));
+    }
+
+    @Test
+    public void corruptCacheMisses() throws Exception {
+        File file = folder.newFile();
+        FileUtils.write(file, "not a cache");
+
+        assertNull(new ConfCache(file).read(ConfCache.key(SRC, properties("1.0"))));
+    }
+
+    @Test
+    public void repoUsesCache() throws Exception {
+        ConfCache cache = new ConfCache(new File(folder.getRoot(), "confs.bin"));
+        Repo first = new Repo("test", "test", SRC, properties("1.0"), cache);
+
+        Repo second = new Repo("test", "test", SRC, properties("1.0"), cache);
+
+        assertEquals(first.ids(false), second.ids(false));
+        assertEquals("example-1.0.jar", second.conf(new Id("app")).getPackaging().getAdd().get(0).getPath());
+    }
+
+    @Test
+    public void linksAndHealthChecksAreReadBack() throws Exception {
+        Conf conf = new Conf();
+        conf.setTag("example/app:1.0");
+        conf.setLinks(Collections.singletonList(new Link("db:database")));
+        Ping ping = new Ping();
+        ping.setUrl(URI.create("http://localhost:8080"));
+        ping.setPattern(Pattern.compile("ok"));
+        conf.getHealthChecks().getPings().add(ping);
+        ConfCache cache = new ConfCache(folder.newFile());
+
+        cache.write("key", Collections.singletonMap(new Id("app"), conf));
+        Conf read = cache.read("key").get(new Id("app"));
+
+        assertEquals(conf.getTags(), read.getTags());
+        assertEquals(conf.getLinks(), read.getLinks());
+        assertEquals(new Id("db"), read.getLinks().get(0).getId());
+        Ping readPing = read.getHealthChecks().getPings().get(0);
+        assertEquals(ping.getUrl(), readPing.getUrl());
+        assertEquals("ok", readPing.getPattern().pattern());
+    }
+
+    @Test
+    public void unreadableEntryMisses() throws Exception {
+        File file = folder.newFile();
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(2);
+            out.writeUTF("key");
+            out.writeUTF("{\"app\": {\"links\": 1}}");
+        }
+
+        assertNull(new ConfCache(file).read("key"));
+    }
+}
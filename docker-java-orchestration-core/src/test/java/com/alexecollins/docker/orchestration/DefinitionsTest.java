@@ -0,0 +1,187 @@
+package com.alexecollins.docker.orchestration;
+
+import com.alexecollins.docker.orchestration.model.Conf;
+import com.alexecollins.docker.orchestration.model.Id;
+import com.alexecollins.docker.orchestration.model.Link;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DefinitionsTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DefinitionsTest.class);
+    private final Id app = new Id("app");
+    private final Id db = new Id("db");
+    private final Conf appConf = new Conf();
+    private final Conf dbConf = new Conf();
+    private final Repo repo = mock(Repo.class);
+
+    @Before
+    public void setUp() throws Exception {
+        when(repo.ids(false)).thenReturn(Arrays.asList(db, app));
+        when(repo.conf(app)).thenReturn(appConf);
+        when(repo.conf(db)).thenReturn(dbConf);
+        when(repo.src(app)).thenReturn(new File("app"));
+        when(repo.src(db)).thenReturn(new File("db"));
+        when(repo.tag(app)).thenReturn("user/project_app:1.0");
+        when(repo.tag(db)).thenReturn("user/project_db");
+        when(repo.containerName(app)).thenReturn("/project_app");
+        when(repo.containerName(db)).thenReturn("/project_db");
+    }
+
+    @Test
+    public void specIsResolved() throws Exception {
+        appConf.setPorts(Arrays.asList("8080", "8081 80"));
+        appConf.setEnv(Collections.singletonMap("A", "b"));
+        appConf.setLinks(Collections.singletonList(new Link("db:database")));
+        appConf.setTags(Collections.singletonList("registry:5000/app:2.0"));
+
+        Definition definition = Definitions.compile(repo, DefinitionFilter.ANY, LOGGER).get(app);
+
+        assertEquals(8080, definition.getPortBindings()[0].getBinding().getHostPort().intValue());
+        assertEquals(8081, definition.getPortBindings()[1].getBinding().getHostPort().intValue());
+        assertEquals(80, definition.getPortBindings()[1].getExposedPort().getPort());
+        assertArrayEquals(new String[]{"A=b"}, definition.getEnv());
+        assertEquals(Collections.singletonList(db), definition.getLinkIds());
+        assertEquals("user/project_app", definition.getRepository());
+        assertArrayEquals(new String[]{"registry:5000/app", "2.0"}, definition.getOtherTags().get(0));
+    }
+
+    @Test
+    public void dynamicPortsArePublishedOnAnyHostPort() throws Exception {
+        appConf.setPorts(Arrays.asList("8080", "8081 80"));
+
+        Definition definition = Definitions.compile(repo, DefinitionFilter.ANY, true, null, LOGGER).get(app);
+
+        assertNull(definition.getPortBindings()[0].getBinding().getHostPort());
+        assertNull(definition.getPortBindings()[1].getBinding().getHostPort());
+        assertEquals(80, definition.getPortBindings()[1].getExposedPort().getPort());
+        assertNotEquals(Definitions.compile(repo, DefinitionFilter.ANY, LOGGER).get(app).getSpecHash(), definition.getSpecHash());
+    }
+
+    @Test
+    public void namespaceIsSuffixedToContainerName() throws Exception {
+        Definition definition = Definitions.compile(repo, DefinitionFilter.ANY, false, "shard1", LOGGER).get(app);
+
+        assertEquals("/project_app_shard1", definition.getContainerName());
+        assertEquals("user/project_app:1.0", definition.getTag());
+    }
+
+    @Test
+    public void specHashChangesWithSpec() throws Exception {
+        String specHash = Definitions.compile(repo, DefinitionFilter.ANY, LOGGER).get(app).getSpecHash();
+        assertEquals(specHash, Definitions.compile(repo, DefinitionFilter.ANY, LOGGER).get(app).getSpecHash());
+
+        appConf.setEnv(Collections.singletonMap("A", "b"));
+
+        Definition definition = Definitions.compile(repo, DefinitionFilter.ANY, LOGGER).get(app);
+        assertNotEquals(specHash, definition.getSpecHash());
+        assertEquals(definition.getSpecHash(), Definition.specHash(definition.getContainerEnv()));
+    }
+
+    @Test
+    public void specHashIsOnlyAddedToTheContainerEnv() throws Exception {
+        appConf.setEnv(Collections.singletonMap("A", "b"));
+
+        Definition definition = Definitions.compile(repo, DefinitionFilter.ANY, LOGGER).get(app);
+
+        assertArrayEquals(new String[]{"A=b"}, definition.getEnv());
+        assertArrayEquals(new String[]{"A=b", Definition.SPEC_HASH_ENV + "=" + definition.getSpecHash()}, definition.getContainerEnv());
+    }
+
+    @Test(expected = OrchestrationException.class)
+    public void configuredSpecHashEnvFailsOnCompile() throws Exception {
+        appConf.setEnv(Collections.singletonMap(Definition.SPEC_HASH_ENV, "0"));
+
+        Definitions.compile(repo, DefinitionFilter.ANY, LOGGER);
+    }
+
+    @Test(expected = OrchestrationException.class)
+    public void invalidPortFailsOnCompile() throws Exception {
+        appConf.setPorts(Collections.singletonList("80a"));
+
+        Definitions.compile(repo, DefinitionFilter.ANY, LOGGER);
+    }
+
+    @Test(expected = OrchestrationException.class)
+    public void linkToUnknownDefinitionFailsOnCompile() throws Exception {
+        appConf.setLinks(Collections.singletonList(new Link("nope")));
+
+        Definitions.compile(repo, DefinitionFilter.ANY, LOGGER);
+    }
+
+    @Test
+    public void linkOfExcludedDefinitionIsNotResolved() throws Exception {
+        appConf.setLinks(Collections.singletonList(new Link("nope")));
+        appConf.setEnabled(false);
+
+        Definitions definitions = Definitions.compile(repo, DefinitionFilter.ANY, LOGGER);
+
+        assertEquals(Collections.singletonList(definitions.get(db)), definitions.included());
+    }
+
+    @Test
+    public void excludedDefinitionsAreNotValidated() throws Exception {
+        appConf.setPorts(Collections.singletonList("80a"));
+        appConf.setEnabled(false);
+
+        Definitions definitions = Definitions.compile(repo, DefinitionFilter.ANY, LOGGER);
+
+        assertFalse(definitions.get(app).isIncluded());
+        assertEquals(Arrays.asList(db, app), definitions.ids());
+        assertEquals(Collections.singletonList(definitions.get(db)), definitions.included());
+    }
+
+    @Test
+    public void dependentsAreIncludedInStartOrder() throws Exception {
+        appConf.setLinks(Collections.singletonList(new Link("db")));
+        Definitions definitions = Definitions.compile(repo, DefinitionFilter.ANY, LOGGER);
+
+        assertEquals(Arrays.asList(definitions.get(db), definitions.get(app)), definitions.withDependents(Collections.singletonList(db)));
+        assertEquals(Collections.singletonList(definitions.get(app)), definitions.withDependents(Collections.singletonList(app)));
+    }
+
+    @Test
+    public void linksAreIncludedInStartOrder() throws Exception {
+        appConf.setLinks(Collections.singletonList(new Link("db")));
+        Definitions definitions = Definitions.compile(repo, DefinitionFilter.ANY, LOGGER);
+
+        assertEquals(Arrays.asList(definitions.get(db), definitions.get(app)), definitions.withLinks(Collections.singletonList(app)));
+        assertEquals(Collections.singletonList(definitions.get(db)), definitions.withLinks(Collections.singletonList(db)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void excludedIdIsRejected() throws Exception {
+        dbConf.setEnabled(false);
+
+        Definitions.compile(repo, DefinitionFilter.ANY, LOGGER).withDependents(Collections.singletonList(db));
+    }
+
+    @Test
+    public void linkToExcludedDefinitionIsRejected() throws Exception {
+        appConf.setLinks(Collections.singletonList(new Link("db")));
+        dbConf.setEnabled(false);
+        Definitions definitions = Definitions.compile(repo, DefinitionFilter.ANY, LOGGER);
+
+        try {
+            definitions.withLinks(Collections.singletonList(app));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("app links to db, which is not included, e.g. it is disabled or filtered out", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.alexecollins.docker.orchestration;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DependencyExecutorTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final DependencyExecutor<String> dependencyExecutor = new DependencyExecutor<>(executor);
+    private final List<String> finished = new CopyOnWriteArrayList<>();
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    private Runnable task(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                finished.add(name);
+            }
+        };
+    }
+
+    @Test
+    public void tasksRunAfterTheirDependencies() throws Exception {
+        Map<String, Runnable> tasks = new LinkedHashMap<>();
+        tasks.put("db", task("db"));
+        tasks.put("app", task("app"));
+        tasks.put("web", task("web"));
+        Map<String, List<String>> dependencies = new LinkedHashMap<>();
+        dependencies.put("app", Collections.singletonList("db"));
+        dependencies.put("web", Arrays.asList("app", "db"));
+
+        dependencyExecutor.execute(tasks, dependencies);
+
+        assertEquals(Arrays.asList("db", "app", "web"), finished);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void circularDependenciesFail() throws Exception {
+        Map<String, Runnable> tasks = new LinkedHashMap<>();
+        tasks.put("a", task("a"));
+        tasks.put("b", task("b"));
+        Map<String, List<String>> dependencies = new LinkedHashMap<>();
+        dependencies.put("a", Collections.singletonList("b"));
+        dependencies.put("b", Collections.singletonList("a"));
+
+        dependencyExecutor.execute(tasks, dependencies);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void dependencyOnUnknownTaskFails() throws Exception {
+        Map<String, Runnable> tasks = new LinkedHashMap<>();
+        tasks.put("app", task("app"));
+        Map<String, List<String>> dependencies = new LinkedHashMap<>();
+        dependencies.put("app", Collections.singletonList("db"));
+
+        try {
+            dependencyExecutor.execute(tasks, dependencies);
+        } finally {
+            assertEquals(Collections.<String>emptyList(), finished);
+        }
+    }
+
+    @Test
+    public void failureStopsDependentTasks() throws Exception {
+        Map<String, Runnable> tasks = new LinkedHashMap<>();
+        tasks.put("db", new Runnable() {
+            @Override
+            public void run() {
+                throw new OrchestrationException("db failed");
+            }
+        });
+        tasks.put("app", task("app"));
+
+        try {
+            dependencyExecutor.execute(tasks, Collections.singletonMap("app", Collections.singletonList("db")));
+            fail();
+        } catch (OrchestrationException e) {
+            assertEquals("db failed", e.getMessage());
+        }
+
+        assertTrue(finished.isEmpty());
+    }
+}
@@ -0,0 +1,48 @@
+package com.alexecollins.docker.orchestration;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.core.DockerClientConfig;
+import org.junit.Test;
+
+import java.net.URI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.Mockito.mock;
+
+public class DockerClientFactoryTest {
+
+    @Test
+    public void poolIsSizedToParallelism() throws Exception {
+        DockerClientConfig config = new DockerClientFactory().uri("unix:///var/run/docker.sock").config(4);
+
+        assertEquals(URI.create("unix:///var/run/docker.sock"), config.getUri());
+        assertEquals(9, config.getMaxTotalConnections().intValue());
+        assertEquals(9, config.getMaxPerRoutConnections().intValue());
+    }
+
+    @Test
+    public void explicitSettingsWin() throws Exception {
+        DockerClientConfig config = new DockerClientFactory()
+                .uri("http://localhost:2375")
+                .readTimeout(1000)
+                .maxConnections(3)
+                .config(4);
+
+        assertEquals(1000, config.getReadTimeout().intValue());
+        assertEquals(3, config.getMaxTotalConnections().intValue());
+    }
+
+    @Test
+    public void clientIsCreatedWithConnectTimeout() throws Exception {
+        assertNotNull(new DockerClientFactory().uri("http://localhost:2375").connectTimeout(1000).create(1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void factoryCannotBeUsedWithDaemons() throws Exception {
+        DockerOrchestrator.builder()
+                .dockerClientFactory(new DockerClientFactory())
+                .daemon("a", mock(DockerClient.class), "10.0.0.1")
+                .build();
+    }
+}
@@ -5,6 +5,7 @@ import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.Appender;
+import com.alexecollins.docker.orchestration.client.ThinDockerCmdExecFactory;
 import com.alexecollins.docker.orchestration.model.BuildFlag;
 import com.alexecollins.docker.orchestration.model.Conf;
 import com.alexecollins.docker.orchestration.model.ContainerConf;
@@ -20,48 +21,68 @@ import com.github.dockerjava.api.command.InspectContainerCmd;
 import com.github.dockerjava.api.command.InspectContainerResponse;
 import com.github.dockerjava.api.command.ListContainersCmd;
 import com.github.dockerjava.api.command.ListImagesCmd;
+import com.github.dockerjava.api.command.PullImageCmd;
 import com.github.dockerjava.api.command.PushImageCmd;
 import com.github.dockerjava.api.command.RemoveContainerCmd;
+import com.github.dockerjava.api.command.RemoveImageCmd;
 import com.github.dockerjava.api.command.StartContainerCmd;
 import com.github.dockerjava.api.command.StopContainerCmd;
 import com.github.dockerjava.api.command.TagImageCmd;
 import com.github.dockerjava.api.model.AuthConfig;
 import com.github.dockerjava.api.model.Container;
 import com.github.dockerjava.api.model.ContainerConfig;
+import com.github.dockerjava.api.model.ExposedPort;
 import com.github.dockerjava.api.model.Image;
+import com.github.dockerjava.api.model.Ports;
 import com.github.dockerjava.api.model.PushEventStreamItem;
+import com.github.dockerjava.core.DockerClientConfig;
+import com.github.dockerjava.core.DockerClientImpl;
 import com.github.dockerjava.jaxrs.BuildImageCmdExec;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.glassfish.jersey.client.ClientResponse;
 import org.hamcrest.CoreMatchers;
 import org.hamcrest.Description;
 import org.hamcrest.TypeSafeMatcher;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.ServerSocket;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyBoolean;
 import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -129,6 +150,8 @@ public class DockerOrchestratorTest {
     @Mock
     private ListImagesCmd listImagesCmdMock;
     @Mock
+    private PullImageCmd pullImageCmdMock;
+    @Mock
     private DockerfileValidator dockerfileValidator;
     @Mock
     private DefinitionFilter definitionFilter;
@@ -136,6 +159,8 @@ public class DockerOrchestratorTest {
     private Tail tailMock;
     @Mock
     private TailFactory tailFactoryMock;
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
     private DockerOrchestrator testObj;
 
     private static TypeSafeMatcher<ILoggingEvent> loggedMessage(final String message) {
@@ -167,7 +192,9 @@ public class DockerOrchestratorTest {
                 tailFactoryMock,
                 dockerfileValidator,
                 definitionFilter,
-                false);
+                false,
+                1,
+                null);
 
         when(repoMock.src(idMock)).thenReturn(srcFileMock);
         when(repoMock.conf(idMock)).thenReturn(confMock);
@@ -229,6 +256,13 @@ public class DockerOrchestratorTest {
         when(dockerMock.inspectContainerCmd(CONTAINER_ID)).thenReturn(inspectContainerCmdMock);
         when(inspectContainerCmdMock.exec()).thenReturn(containerInspectResponseMock);
         when(containerInspectResponseMock.getImageId()).thenReturn(IMAGE_ID);
+        when(containerInspectResponseMock.getConfig()).thenReturn(containerConfigMock);
+        when(containerConfigMock.getEnv()).thenAnswer(new Answer<String[]>() {
+            @Override
+            public String[] answer(InvocationOnMock invocation) throws Throwable {
+                return Definitions.compile(repoMock, DefinitionFilter.ANY, LOGGER).get(idMock).getContainerEnv();
+            }
+        });
 
         when(dockerMock.tagImageCmd(anyString(), anyString(), anyString())).thenReturn(tagImageCmdMock);
         when(tagImageCmdMock.withForce()).thenReturn(tagImageCmdMock);
@@ -284,6 +318,24 @@ public class DockerOrchestratorTest {
         verify(startContainerCmdMock, times(0)).exec();
     }
 
+    @Test
+    public void planMakesNoChanges() throws Exception {
+        when(listContainersCmdMock.exec()).thenReturn(Collections.<Container>emptyList());
+
+        Plan plan = testObj.plan();
+
+        assertEquals(Arrays.asList(Plan.Action.CREATE, Plan.Action.START), plan.getSteps().get(0).getActions());
+        verify(createContainerCmdMock, times(0)).exec();
+        verify(startContainerCmdMock, times(0)).exec();
+    }
+
+    @Test
+    public void planForRunningContainerIsNoOp() throws Exception {
+        when(listContainersCmdMock.exec()).thenReturn(Collections.singletonList(containerMock));
+
+        assertTrue(testObj.plan().getSteps().get(0).isNoOp());
+    }
+
     @Test
     public void removeExistingContainerThenCreateAndStartNewOneAsImageIdsDoNotMatch() throws DockerException, IOException {
         when(containerInspectResponseMock.getImageId()).thenReturn("A Different Image Id");
@@ -295,6 +347,314 @@ public class DockerOrchestratorTest {
         verify(startContainerCmdMock).exec();
     }
 
+    @Test
+    public void removeExistingContainerThenCreateAndStartNewOneAsSpecChanged() throws DockerException, IOException {
+        doReturn(new String[]{Definition.SPEC_HASH_ENV + "=other"}).when(containerConfigMock).getEnv();
+
+        testObj.start();
+
+        verify(stopContainerCmdMock).exec();
+        verify(removeContainerCmdMock).exec();
+        verify(createContainerCmdMock).exec();
+        verify(startContainerCmdMock).exec();
+    }
+
+    @Test
+    public void unchangedRunningStackIsNotStartedAgain() throws Exception {
+        DockerOrchestrator orchestrator = new DockerOrchestrator(dockerMock, repoMock, fileOrchestratorMock, EnumSet.noneOf(BuildFlag.class),
+                LOGGER, tailFactoryMock, dockerfileValidator, definitionFilter, false, 1, new StackState(folder.newFile()));
+
+        orchestrator.start();
+        orchestrator.start();
+
+        verify(inspectContainerCmdMock, times(1)).exec();
+        verify(tailMock, times(1)).start();
+
+        orchestrator.stop();
+        orchestrator.start();
+
+        verify(inspectContainerCmdMock, times(2)).exec();
+    }
+
+    @Test
+    public void missingBaseImageIsPulledBeforeBuilding() throws Exception {
+        File src = folder.newFolder();
+        FileUtils.write(new File(src, "Dockerfile"), "# comment\nFROM busybox:1.0\nCMD [\"cat\"]\n");
+        when(repoMock.src(idMock)).thenReturn(src);
+        when(fileOrchestratorMock.prepare(idMock, src, confMock)).thenReturn(fileMock);
+        when(listContainersCmdMock.exec()).thenReturn(Collections.<Container>emptyList());
+        when(listImagesCmdMock.exec()).thenReturn(Collections.<Image>emptyList()).thenReturn(Collections.<Image>emptyList()).thenReturn(Collections.singletonList(imageMock));
+        when(dockerMock.pullImageCmd("busybox")).thenReturn(pullImageCmdMock);
+        when(pullImageCmdMock.withTag("1.0")).thenReturn(pullImageCmdMock);
+        when(pullImageCmdMock.exec()).thenReturn(IOUtils.toInputStream("{\"status\":\"Downloaded newer image for busybox:1.0\"}"));
+
+        testObj.start();
+
+        InOrder inOrder = inOrder(pullImageCmdMock, buildImageCmdMock);
+        inOrder.verify(pullImageCmdMock).exec();
+        inOrder.verify(buildImageCmdMock).exec();
+    }
+
+    @Test
+    public void missingBaseImageIsLeftToTheBuildWhenTheClientCannotPull() throws Exception {
+        File src = folder.newFolder();
+        FileUtils.write(new File(src, "Dockerfile"), "FROM busybox:1.0\n");
+        when(repoMock.src(idMock)).thenReturn(src);
+        when(fileOrchestratorMock.prepare(idMock, src, confMock)).thenReturn(fileMock);
+        when(listContainersCmdMock.exec()).thenReturn(Collections.<Container>emptyList());
+        when(listImagesCmdMock.exec()).thenReturn(Collections.<Image>emptyList()).thenReturn(Collections.<Image>emptyList()).thenReturn(Collections.singletonList(imageMock));
+        int port;
+        try (ServerSocket closed = new ServerSocket(0)) {
+            port = closed.getLocalPort();
+        }
+        DockerClient thin = DockerClientImpl.getInstance(DockerClientConfig.createDefaultConfigBuilder()
+                .withUri("http://127.0.0.1:" + port)
+                .build())
+                .withDockerCmdExecFactory(new ThinDockerCmdExecFactory(1000));
+        when(dockerMock.pullImageCmd("busybox")).thenReturn(thin.pullImageCmd("busybox"));
+
+        testObj.start();
+
+        verify(buildImageCmdMock).exec();
+        thin.close();
+    }
+
+    @Test
+    public void planIsAppliedInStartOrderByDefault() throws Exception {
+        Id second = new Id("second");
+        when(repoMock.ids(false)).thenReturn(Arrays.asList(idMock, second));
+        when(repoMock.conf(second)).thenReturn(new Conf());
+        when(repoMock.src(second)).thenReturn(srcFileMock);
+        when(repoMock.containerName(second)).thenReturn("/second");
+        when(repoMock.imageName(second)).thenReturn("second");
+        Definitions definitions = Definitions.compile(repoMock, DefinitionFilter.ANY, LOGGER);
+        Daemon daemon = new Daemon(Daemon.DEFAULT_NAME, dockerMock, null);
+
+        testObj.apply(new Plan(Arrays.asList(
+                new Plan.Step(definitions.get(idMock), daemon, null, Arrays.asList(Plan.Action.BUILD, Plan.Action.CREATE, Plan.Action.START), "new"),
+                new Plan.Step(definitions.get(second), daemon, CONTAINER_ID, Collections.<Plan.Action>emptyList(), "running"))));
+
+        verify(appender, atLeastOnce()).doAppend(captor.capture());
+        List<String> starts = new ArrayList<>();
+        for (ILoggingEvent event : captor.getAllValues()) {
+            if (event.getFormattedMessage().startsWith("Starting ")) {
+                starts.add(event.getFormattedMessage());
+            }
+        }
+        assertEquals(Arrays.asList("Starting idMock", "Starting second"), starts);
+    }
+
+    @Test
+    public void containerIsRecreatedWhenItsLinkIsCreated() throws Exception {
+        Id db = new Id("db");
+        when(repoMock.ids(false)).thenReturn(Arrays.asList(db, idMock));
+        when(repoMock.conf(db)).thenReturn(new Conf());
+        when(repoMock.src(db)).thenReturn(srcFileMock);
+        when(repoMock.containerName(db)).thenReturn("/db");
+        when(repoMock.imageName(db)).thenReturn("db");
+        when(confMock.getLinks()).thenReturn(Collections.singletonList(new Link("db")));
+
+        List<Plan.Step> steps = testObj.plan().getSteps();
+
+        assertEquals(db, steps.get(0).getId());
+        assertTrue(steps.get(0).getActions().contains(Plan.Action.CREATE));
+        assertEquals(idMock, steps.get(1).getId());
+        assertEquals(Arrays.asList(Plan.Action.STOP, Plan.Action.REMOVE, Plan.Action.CREATE, Plan.Action.START), steps.get(1).getActions());
+    }
+
+    @Test
+    public void linkOutsideThePlanIsWarnedOf() throws Exception {
+        Id db = new Id("db");
+        when(repoMock.ids(false)).thenReturn(Arrays.asList(db, idMock));
+        when(repoMock.conf(db)).thenReturn(new Conf());
+        when(repoMock.src(db)).thenReturn(srcFileMock);
+        when(repoMock.containerName(db)).thenReturn("/db");
+        when(repoMock.imageName(db)).thenReturn("db");
+        when(confMock.getLinks()).thenReturn(Collections.singletonList(new Link("db")));
+        Definitions definitions = Definitions.compile(repoMock, DefinitionFilter.ANY, LOGGER);
+
+        testObj.apply(new Plan(Collections.singletonList(new Plan.Step(definitions.get(idMock),
+                new Daemon(Daemon.DEFAULT_NAME, dockerMock, null), CONTAINER_ID, Collections.<Plan.Action>emptyList(), "running"))));
+
+        verify(appender, atLeastOnce()).doAppend(captor.capture());
+        assertThat(captor.getAllValues(), CoreMatchers.hasItem(loggedMessage("idMock links to db, which is not in the plan")));
+    }
+
+    @Test(timeout = 10000)
+    public void imageIsBuiltAfterTheImageItIsFrom() throws Exception {
+        Id second = new Id("second");
+        File secondSrc = folder.newFolder();
+        FileUtils.write(new File(secondSrc, "Dockerfile"), "FROM " + IMAGE_NAME + "\n");
+        File secondFolder = mock(File.class);
+        when(repoMock.ids(false)).thenReturn(Arrays.asList(idMock, second));
+        when(repoMock.conf(second)).thenReturn(new Conf());
+        when(repoMock.src(second)).thenReturn(secondSrc);
+        when(repoMock.containerName(second)).thenReturn("/second");
+        when(repoMock.imageName(second)).thenReturn("second");
+        when(fileOrchestratorMock.prepare(eq(second), eq(secondSrc), any(Conf.class))).thenReturn(secondFolder);
+        final List<String> built = Collections.synchronizedList(new ArrayList<String>());
+        when(buildImageCmdMock.exec()).thenAnswer(new Answer<InputStream>() {
+            @Override
+            public InputStream answer(InvocationOnMock invocation) throws Throwable {
+                Thread.sleep(200);
+                built.add("idMock");
+                return IOUtils.toInputStream("Successfully built");
+            }
+        });
+        BuildImageCmd secondBuildMock = mock(BuildImageCmd.class);
+        when(dockerMock.buildImageCmd(secondFolder)).thenReturn(secondBuildMock);
+        when(secondBuildMock.withRemove(anyBoolean())).thenReturn(secondBuildMock);
+        when(secondBuildMock.withTag(any(String.class))).thenReturn(secondBuildMock);
+        when(secondBuildMock.withNoCache(anyBoolean())).thenReturn(secondBuildMock);
+        when(secondBuildMock.withQuiet(anyBoolean())).thenReturn(secondBuildMock);
+        when(secondBuildMock.exec()).thenAnswer(new Answer<InputStream>() {
+            @Override
+            public InputStream answer(InvocationOnMock invocation) throws Throwable {
+                built.add("second");
+                return IOUtils.toInputStream("Successfully built");
+            }
+        });
+        DockerOrchestrator orchestrator = new DockerOrchestrator(dockerMock, repoMock, fileOrchestratorMock, EnumSet.noneOf(BuildFlag.class),
+                LOGGER, tailFactoryMock, dockerfileValidator, definitionFilter, false, 2, null);
+        Definitions definitions = Definitions.compile(repoMock, DefinitionFilter.ANY, LOGGER);
+        Daemon daemon = new Daemon(Daemon.DEFAULT_NAME, dockerMock, null);
+
+        orchestrator.apply(new Plan(Arrays.asList(
+                new Plan.Step(definitions.get(second), daemon, CONTAINER_ID, Collections.singletonList(Plan.Action.BUILD), "new"),
+                new Plan.Step(definitions.get(idMock), daemon, CONTAINER_ID, Collections.singletonList(Plan.Action.BUILD), "new"))));
+
+        assertEquals(Arrays.asList("idMock", "second"), built);
+    }
+
+    @Test(timeout = 10000)
+    public void sharedBaseImageIsBuiltAfterTheImageItIsFrom() throws Exception {
+        File work = folder.newFolder("work");
+        File parentFolder = new File(work, "parent");
+        FileUtils.write(new File(parentFolder, "Dockerfile"), "FROM busybox\n");
+        when(fileOrchestratorMock.prepare(idMock, srcFileMock, confMock)).thenReturn(parentFolder);
+        List<Id> ids = new ArrayList<>(Collections.singletonList(idMock));
+        for (String child : Arrays.asList("first", "second")) {
+            Id id = new Id(child);
+            File src = folder.newFolder(child);
+            FileUtils.write(new File(src, "Dockerfile"), "FROM " + IMAGE_NAME + "\nRUN echo shared\nCMD [\"" + child + "\"]\n");
+            File childFolder = new File(work, child);
+            when(repoMock.conf(id)).thenReturn(new Conf());
+            when(repoMock.src(id)).thenReturn(src);
+            when(repoMock.containerName(id)).thenReturn("/" + child);
+            when(repoMock.imageName(id)).thenReturn(child);
+            when(repoMock.tag(id)).thenReturn(child + ":" + TAG_NAME);
+            when(fileOrchestratorMock.prepare(eq(id), eq(src), any(Conf.class))).thenReturn(childFolder);
+            ids.add(id);
+        }
+        when(repoMock.ids(false)).thenReturn(ids);
+        final List<String> built = Collections.synchronizedList(new ArrayList<String>());
+        when(dockerMock.buildImageCmd(any(File.class))).thenAnswer(new Answer<BuildImageCmd>() {
+            @Override
+            public BuildImageCmd answer(InvocationOnMock invocation) throws Throwable {
+                final String name = ((File) invocation.getArguments()[0]).getName();
+                BuildImageCmd build = mock(BuildImageCmd.class);
+                when(build.withRemove(anyBoolean())).thenReturn(build);
+                when(build.withTag(any(String.class))).thenReturn(build);
+                when(build.withNoCache(anyBoolean())).thenReturn(build);
+                when(build.withQuiet(anyBoolean())).thenReturn(build);
+                when(build.exec()).thenAnswer(new Answer<InputStream>() {
+                    @Override
+                    public InputStream answer(InvocationOnMock invocation) throws Throwable {
+                        if (name.equals("parent")) {
+                            Thread.sleep(200);
+                        }
+                        built.add(name.startsWith(SharedBaseImages.FOLDER_PREFIX) ? "base" : name);
+                        return IOUtils.toInputStream("Successfully built");
+                    }
+                });
+                return build;
+            }
+        });
+        Definitions definitions = Definitions.compile(repoMock, DefinitionFilter.ANY, LOGGER);
+        Daemon daemon = new Daemon(Daemon.DEFAULT_NAME, dockerMock, null);
+
+        for (int parallelism : new int[]{1, 2}) {
+            built.clear();
+            // as prepared, before the shared base is extracted
+            for (Id id : ids.subList(1, ids.size())) {
+                FileUtils.copyDirectory(repoMock.src(id), new File(work, id.toString()));
+            }
+            DockerOrchestrator orchestrator = new DockerOrchestrator(dockerMock, repoMock, fileOrchestratorMock, EnumSet.of(BuildFlag.SHARED_BASE_IMAGES),
+                    LOGGER, tailFactoryMock, dockerfileValidator, definitionFilter, false, parallelism, null);
+            List<Plan.Step> steps = new ArrayList<>();
+            for (Id id : ids) {
+                steps.add(new Plan.Step(definitions.get(id), daemon, CONTAINER_ID, Collections.singletonList(Plan.Action.BUILD), "new"));
+            }
+
+            orchestrator.apply(new Plan(steps));
+
+            assertEquals("parallelism " + parallelism, Arrays.asList("parent", "base"), built.subList(0, 2));
+            assertEquals(4, built.size());
+        }
+    }
+
+    @Test
+    public void changedConfigurationIsReadAgain() throws Exception {
+        File conf = folder.newFile("conf.yml");
+        when(repoMock.confFiles(idMock)).thenReturn(Collections.singletonList(conf));
+        Repo reloadedRepoMock = mock(Repo.class);
+        when(repoMock.reload()).thenReturn(reloadedRepoMock);
+        Conf reloadedConf = new Conf();
+        when(reloadedRepoMock.ids(false)).thenReturn(Collections.singletonList(idMock));
+        when(reloadedRepoMock.conf(idMock)).thenReturn(reloadedConf);
+        when(reloadedRepoMock.src(idMock)).thenReturn(srcFileMock);
+        when(reloadedRepoMock.containerName(idMock)).thenReturn(CONTAINER_NAME);
+        when(reloadedRepoMock.imageName(idMock)).thenReturn(IMAGE_NAME);
+        when(reloadedRepoMock.tag(idMock)).thenReturn(IMAGE_NAME + ":" + TAG_NAME);
+
+        assertFalse(testObj.reloadIfConfChanged(Collections.singleton(folder.newFile("app.jar").toPath())));
+        assertTrue(testObj.reloadIfConfChanged(Collections.singleton(conf.toPath())));
+
+        assertSame(reloadedConf, testObj.definitions().get(idMock).getConf());
+    }
+
+    @Test
+    public void imageFromAChangedImageIsRebuiltAfterIt() throws Exception {
+        Id second = new Id("second");
+        File secondSrc = folder.newFolder();
+        FileUtils.write(new File(secondSrc, "Dockerfile"), "FROM " + IMAGE_NAME + "\n");
+        File secondFolder = mock(File.class);
+        when(repoMock.ids(false)).thenReturn(Arrays.asList(second, idMock));
+        when(repoMock.conf(second)).thenReturn(new Conf());
+        when(repoMock.src(second)).thenReturn(secondSrc);
+        when(repoMock.containerName(second)).thenReturn("/second");
+        when(repoMock.imageName(second)).thenReturn("second");
+        when(repoMock.tag(second)).thenReturn("second:" + TAG_NAME);
+        when(fileOrchestratorMock.prepare(eq(second), eq(secondSrc), any(Conf.class))).thenReturn(secondFolder);
+        BuildImageCmd secondBuildMock = mock(BuildImageCmd.class);
+        when(dockerMock.buildImageCmd(secondFolder)).thenReturn(secondBuildMock);
+        when(secondBuildMock.withRemove(anyBoolean())).thenReturn(secondBuildMock);
+        when(secondBuildMock.withTag(any(String.class))).thenReturn(secondBuildMock);
+        when(secondBuildMock.withNoCache(anyBoolean())).thenReturn(secondBuildMock);
+        when(secondBuildMock.withQuiet(anyBoolean())).thenReturn(secondBuildMock);
+        when(secondBuildMock.exec()).thenReturn(new BuildImageCmdExec.ResponseImpl(IOUtils.toInputStream("Successfully built")));
+        Image secondImageMock = mock(Image.class);
+        when(secondImageMock.getId()).thenReturn("secondImageId");
+        when(secondImageMock.getRepoTags()).thenReturn(new String[]{"second:" + TAG_NAME});
+        when(listImagesCmdMock.exec()).thenReturn(Arrays.asList(imageMock, secondImageMock));
+        when(dockerMock.createContainerCmd("secondImageId")).thenReturn(createContainerCmdMock);
+        when(createContainerCmdMock.withName("/second")).thenReturn(createContainerCmdMock);
+
+        testObj.restart(Collections.singleton(idMock));
+
+        InOrder inOrder = inOrder(buildImageCmdMock, secondBuildMock);
+        inOrder.verify(buildImageCmdMock).exec();
+        inOrder.verify(secondBuildMock).exec();
+        verify(createContainerCmdMock).withName("/second");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void startingAnExcludedIdFails() throws Exception {
+        when(confMock.isEnabled()).thenReturn(false);
+
+        testObj.start(idMock);
+    }
+
     @Test
     public void stopARunningContainer() {
         when(listContainersCmdMock.exec()).thenReturn(Collections.singletonList(containerMock));
@@ -334,6 +694,20 @@ public class DockerOrchestratorTest {
         assertEquals("idMock", testObjPlugin.lastStopped().toString());
     }
 
+    @Test
+    public void pluginStoppedById() throws Exception {
+        TestPlugin testObjPlugin = testObj.getPlugin(TestPlugin.class);
+
+        testObj.stop(idMock);
+
+        assertEquals("idMock", testObjPlugin.lastStopped().toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void startingAnUndefinedIdFails() throws Exception {
+        testObj.start(new Id("undefined"));
+    }
+
     @Test
     public void buildImage() {
         testObj.build(idMock);
@@ -410,6 +784,23 @@ public class DockerOrchestratorTest {
 
     }
 
+    @Test
+    public void cleanRemovesSharedBaseImages() throws Exception {
+        Image sharedBaseMock = mock(Image.class);
+        when(sharedBaseMock.getRepoTags()).thenReturn(new String[]{SharedBaseImages.REPOSITORY + ":0123456789ab"});
+        when(listContainersCmdMock.exec()).thenReturn(Collections.<Container>emptyList());
+        when(listImagesCmdMock.exec()).thenReturn(Arrays.asList(imageMock, sharedBaseMock));
+        RemoveImageCmd removeImageCmdMock = mock(RemoveImageCmd.class);
+        when(dockerMock.removeImageCmd(anyString())).thenReturn(removeImageCmdMock);
+        when(removeImageCmdMock.withForce()).thenReturn(removeImageCmdMock);
+
+        testObj.clean();
+
+        verify(dockerMock).removeImageCmd(IMAGE_ID);
+        verify(dockerMock).removeImageCmd(SharedBaseImages.REPOSITORY + ":0123456789ab");
+        verify(fileOrchestratorMock).clean();
+    }
+
     @Test
     public void privilegedConfigurationStartsPrivilegedContainer() throws Exception {
 
@@ -420,4 +811,64 @@ public class DockerOrchestratorTest {
 
         verify(createContainerCmdMock).withPrivileged(true);
     }
+
+    @Test
+    public void addressesAreDiscoveredOnceUntilTheContainerIsStopped() throws Exception {
+        InspectContainerCmd inspectByNameCmdMock = mock(InspectContainerCmd.class);
+        InspectContainerResponse.NetworkSettings networkSettingsMock = mock(InspectContainerResponse.NetworkSettings.class);
+        Ports ports = new Ports(ExposedPort.tcp(8080), Ports.Binding(32768));
+        when(dockerMock.inspectContainerCmd(CONTAINER_NAME)).thenReturn(inspectByNameCmdMock);
+        when(inspectByNameCmdMock.exec()).thenReturn(containerInspectResponseMock);
+        when(containerInspectResponseMock.getNetworkSettings()).thenReturn(networkSettingsMock);
+        when(networkSettingsMock.getIpAddress()).thenReturn("172.17.0.2");
+        when(networkSettingsMock.getPorts()).thenReturn(ports);
+
+        ContainerAddress address = testObj.getAddresses().get(idMock);
+        testObj.getAddresses();
+
+        assertEquals("172.17.0.2", address.getIpAddress());
+        assertEquals(Integer.valueOf(32768), address.getHostPort(8080));
+        verify(inspectByNameCmdMock, times(1)).exec();
+
+        testObj.stop();
+        testObj.getAddresses();
+
+        verify(inspectByNameCmdMock, times(2)).exec();
+    }
+
+    @Test
+    public void namespacedContainerIsNotFoundByImageName() throws Exception {
+        DockerOrchestrator orchestrator = new DockerOrchestrator(Collections.singletonList(new Daemon(Daemon.DEFAULT_NAME, dockerMock, null)),
+                PlacementPolicy.ROUND_ROBIN, repoMock, fileOrchestratorMock, EnumSet.noneOf(BuildFlag.class), LOGGER, tailFactoryMock,
+                dockerfileValidator, definitionFilter, false, 1, null, false, "shard1");
+
+        orchestrator.start();
+
+        verify(createContainerCmdMock).withName(CONTAINER_NAME + "_shard1");
+        verify(createContainerCmdMock).exec();
+        verify(startContainerCmdMock).exec();
+    }
+
+    @Test
+    public void namespacedContainerIsNotFoundByImageNameWithoutANamespace() throws Exception {
+        when(containerMock.getNames()).thenReturn(new String[]{"/" + CONTAINER_NAME + "_shard1"});
+
+        testObj.start();
+
+        verify(createContainerCmdMock).exec();
+        verify(dockerMock, never()).removeContainerCmd(CONTAINER_ID);
+    }
+
+    @Test
+    public void imageUsedByANamespacedContainerIsNotRemoved() throws Exception {
+        when(containerMock.getNames()).thenReturn(new String[]{"/" + CONTAINER_NAME + "_shard1"});
+        RemoveImageCmd removeImageCmdMock = mock(RemoveImageCmd.class);
+        when(dockerMock.removeImageCmd(anyString())).thenReturn(removeImageCmdMock);
+        when(removeImageCmdMock.withForce()).thenReturn(removeImageCmdMock);
+
+        testObj.clean();
+
+        verify(dockerMock, never()).removeContainerCmd(CONTAINER_ID);
+        verify(dockerMock, never()).removeImageCmd(IMAGE_ID);
+    }
 }
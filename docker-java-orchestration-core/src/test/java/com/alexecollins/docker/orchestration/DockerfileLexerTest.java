@@ -0,0 +1,64 @@
+package com.alexecollins.docker.orchestration;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DockerfileLexerTest {
+
+    @Test
+    public void instructionsAreJoinedAcrossContinuationLines() throws Exception {
+        DockerfileLexer lexer = new DockerfileLexer(new StringReader("# comment\nFROM centos:7\n\nRUN a \\\n# comment\n b\nCMD\n"));
+
+        DockerfileLexer.Instruction from = lexer.next();
+        assertEquals("FROM", from.getName());
+        assertEquals("centos:7", from.getParams());
+        assertEquals(2, from.getFirstLine());
+        assertEquals(2, from.getLastLine());
+
+        DockerfileLexer.Instruction run = lexer.next();
+        assertEquals("RUN", run.getName());
+        assertEquals("a \\ b", run.getParams());
+        assertEquals("RUN a \\\n b", run.getText());
+        assertEquals(4, run.getFirstLine());
+        assertEquals(6, run.getLastLine());
+
+        DockerfileLexer.Instruction cmd = lexer.next();
+        assertEquals("CMD", cmd.getName());
+        assertNull(cmd.getParams());
+
+        assertNull(lexer.next());
+        assertFalse(lexer.isUnterminated());
+        assertEquals(7, lexer.getLineNumber());
+    }
+
+    @Test
+    public void longInstructionsAreReadInOnePass() throws Exception {
+        StringBuilder dockerfile = new StringBuilder("FROM centos:7\nRUN true");
+        for (int i = 0; i < 5000; i++) {
+            dockerfile.append(" \\\n && true");
+        }
+        DockerfileLexer lexer = new DockerfileLexer(new StringReader(dockerfile.toString()));
+
+        lexer.next();
+        DockerfileLexer.Instruction run = lexer.next();
+
+        assertEquals(5002, run.getLastLine());
+        assertNull(lexer.next());
+    }
+
+    @Test
+    public void trailingContinuationIsUnterminated() throws Exception {
+        DockerfileLexer lexer = new DockerfileLexer(new StringReader("FROM centos:7\nRUN a \\\n"));
+
+        lexer.next();
+
+        assertNull(lexer.next());
+        assertTrue(lexer.isUnterminated());
+    }
+}
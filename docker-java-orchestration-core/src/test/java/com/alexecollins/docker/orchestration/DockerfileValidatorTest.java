@@ -5,6 +5,7 @@ import org.junit.Test;
 import java.io.File;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
 public class DockerfileValidatorTest {
@@ -21,6 +22,12 @@ public class DockerfileValidatorTest {
         validator.validate(new File("src/test/docker-repo-v1/filter"));
     }
 
+    @Test
+    public void baseImageIsFirstFrom() throws Exception {
+        assertEquals("centos", DockerfileValidator.baseImage(new File("src/test/docker/app")));
+        assertNull(DockerfileValidator.baseImage(new File("src/test/docker/nope")));
+    }
+
     @Test
     public void badFileFailValidation() throws Exception {
 
@@ -0,0 +1,65 @@
+package com.alexecollins.docker.orchestration;
+
+import com.alexecollins.docker.orchestration.model.Packaging;
+import com.alexecollins.docker.orchestration.util.TextFileFilter;
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FileClassifierTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+    private final Packaging packaging = new Packaging();
+    private File ini;
+    private File yml;
+    private File bin;
+
+    @Before
+    public void setUp() throws Exception {
+        ini = new File(folder.getRoot(), "conf/app.ini");
+        FileUtils.write(ini, "version=${project.version}\n");
+        yml = new File(folder.getRoot(), "application.yml");
+        FileUtils.write(yml, "a: b\n");
+        bin = new File(folder.getRoot(), "conf/app.bin");
+        FileUtils.writeByteArrayToFile(bin, new byte[]{'a', 0, 'b'});
+    }
+
+    private FileClassifier classifier() {
+        return new FileClassifier(folder.getRoot(), TextFileFilter.INSTANCE, packaging);
+    }
+
+    @Test
+    public void byDefaultFilesAreClassifiedByName() throws Exception {
+        assertFalse(classifier().accept(ini));
+        assertTrue(classifier().accept(yml));
+        assertFalse(classifier().accept(ini.getParentFile()));
+    }
+
+    @Test
+    public void includesAndExcludesAreRelativeToTheRoot() throws Exception {
+        packaging.setFilterIncludes(Collections.singletonList("conf/*"));
+        packaging.setFilterExcludes(Collections.singletonList("*.yml"));
+
+        assertTrue(classifier().accept(ini));
+        assertFalse(classifier().accept(bin));
+        assertFalse(classifier().accept(yml));
+    }
+
+    @Test
+    public void sniffingFiltersAnyTextFile() throws Exception {
+        packaging.setSniff(true);
+
+        assertTrue(classifier().accept(ini));
+        assertTrue(classifier().accept(yml));
+        assertFalse(classifier().accept(bin));
+    }
+}
@@ -0,0 +1,60 @@
+package com.alexecollins.docker.orchestration;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FileCopierTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+    private final FileCopier fileCopier = new FileCopier(2);
+
+    @Test
+    public void treeIsCopiedWithTimesLastModified() throws Exception {
+        File src = folder.newFolder("src");
+        File a = new File(src, "a.txt");
+        FileUtils.write(a, "a");
+        FileUtils.write(new File(src, "b/b.txt"), "bb");
+        FileUtils.write(new File(src, "b/c.log"), "c");
+        assertTrue(a.setLastModified(1000000000000L));
+        File dest = new File(folder.getRoot(), "dest");
+
+        long bytes = fileCopier.copy(src, dest, new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return !file.getName().endsWith(".log");
+            }
+        });
+
+        assertEquals(3, bytes);
+        assertEquals("a", FileUtils.readFileToString(new File(dest, "a.txt")));
+        assertEquals("bb", FileUtils.readFileToString(new File(dest, "b/b.txt")));
+        assertFalse(new File(dest, "b/c.log").exists());
+        assertEquals(a.lastModified(), new File(dest, "a.txt").lastModified());
+    }
+
+    @Test
+    public void linkedFileIsReplacedRatherThanOverwritten() throws Exception {
+        File src = folder.newFile("src.txt");
+        FileUtils.write(src, "new");
+        File stored = folder.newFile("stored");
+        FileUtils.write(stored, "stored");
+        File dest = new File(folder.getRoot(), "dest.txt");
+        Files.createLink(dest.toPath(), stored.toPath());
+
+        FileCopier.copyFile(src, dest);
+
+        assertEquals("new", FileUtils.readFileToString(dest));
+        assertEquals("stored", FileUtils.readFileToString(stored));
+    }
+}
@@ -0,0 +1,67 @@
+package com.alexecollins.docker.orchestration;
+
+import com.alexecollins.docker.orchestration.model.Conf;
+import com.alexecollins.docker.orchestration.model.Id;
+import com.alexecollins.docker.orchestration.model.Item;
+import com.alexecollins.docker.orchestration.util.TextFileFilter;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FileOrchestratorTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void filesExcludedByDockerIgnoreAreNotCopied() throws Exception {
+        File root = folder.newFolder("root");
+        File src = new File(root, "app");
+        FileUtils.write(new File(src, "Dockerfile"), "FROM centos:7\n");
+        FileUtils.write(new File(src, ".dockerignore"), "Dockerfile\n*.log\ntarget\nlib/*.tmp\n");
+        FileUtils.write(new File(src, "app.yml"), "version: ${project.version}\n");
+        FileUtils.write(new File(src, "debug.log"), "");
+        FileUtils.write(new File(src, "target/big.jar"), "");
+        FileUtils.write(new File(root, "lib/app.jar"), "");
+        FileUtils.write(new File(root, "lib/scratch.tmp"), "");
+        FileUtils.write(new File(root, "target"), "excluded add");
+        Conf conf = new Conf();
+        conf.getPackaging().setAdd(Arrays.asList(new Item("lib"), new Item("target")));
+        Properties properties = new Properties();
+        properties.setProperty("project.version", "1.0");
+
+        File destDir = new FileOrchestrator(folder.newFolder("work"), root, TextFileFilter.INSTANCE, properties)
+                .prepare(new Id("app"), src, conf);
+
+        assertTrue(new File(destDir, "Dockerfile").exists());
+        assertTrue(new File(destDir, ".dockerignore").exists());
+        assertEquals("version: 1.0\n", FileUtils.readFileToString(new File(destDir, "app.yml")));
+        assertFalse(new File(destDir, "debug.log").exists());
+        assertFalse(new File(destDir, "target").exists());
+        assertTrue(new File(destDir, "lib/app.jar").exists());
+        assertFalse(new File(destDir, "lib/scratch.tmp").exists());
+    }
+
+    @Test
+    public void cleanRemovesSharedBaseFolders() throws Exception {
+        File work = folder.newFolder("work");
+        File sharedBase = new File(work, SharedBaseImages.FOLDER_PREFIX + "0123456789ab");
+        FileUtils.write(new File(sharedBase, "Dockerfile"), "FROM centos:7\n");
+        File app = new File(work, "app");
+        FileUtils.write(new File(app, "Dockerfile"), "FROM centos:7\n");
+
+        new FileOrchestrator(work, folder.getRoot(), TextFileFilter.INSTANCE, new Properties()).clean();
+
+        assertFalse(sharedBase.exists());
+        assertTrue(app.exists());
+    }
+}
@@ -0,0 +1,136 @@
+package com.alexecollins.docker.orchestration;
+
+import com.alexecollins.docker.orchestration.model.Conf;
+import com.alexecollins.docker.orchestration.model.Id;
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.model.Container;
+import com.github.dockerjava.api.model.ExposedPort;
+import com.github.dockerjava.api.model.Image;
+import com.github.dockerjava.api.model.Ports;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PlacementTest {
+
+    private final Daemon a = new Daemon("a", mock(DockerClient.class), "10.0.0.1");
+    private final Daemon b = new Daemon("b", mock(DockerClient.class), "10.0.0.2");
+    private final List<Daemon> daemons = Arrays.asList(a, b);
+    private final Map<Daemon, Snapshot> snapshots = new HashMap<>();
+
+    private static Definition definition(String id, String daemon) {
+        final Conf conf = new Conf();
+        conf.setDaemon(daemon);
+        return new Definition(new Id(id), conf, true, new File(id), "project_" + id, "project_" + id, "/project_" + id);
+    }
+
+    private static Container container(String id, String name) {
+        final Container container = mock(Container.class);
+        when(container.getId()).thenReturn(id);
+        when(container.getImage()).thenReturn("other");
+        when(container.getNames()).thenReturn(new String[]{name});
+        return container;
+    }
+
+    private static Snapshot snapshot(List<Container> containers, List<Container> running) {
+        final DockerClient docker = mock(DockerClient.class, RETURNS_DEEP_STUBS);
+        when(docker.listContainersCmd().withShowAll(true).exec()).thenReturn(containers);
+        when(docker.listContainersCmd().withShowAll(false).exec()).thenReturn(running);
+        when(docker.listImagesCmd().exec()).thenReturn(Collections.<Image>emptyList());
+        return Snapshot.of(docker);
+    }
+
+    private Map<Id, Daemon> place(PlacementPolicy policy, Definition... definitions) {
+        return Placement.place(Arrays.asList(definitions), daemons, snapshots, policy);
+    }
+
+    @Test
+    public void roundRobinTakesTurns() throws Exception {
+        snapshots.put(a, snapshot(Collections.<Container>emptyList(), Collections.<Container>emptyList()));
+        snapshots.put(b, snapshot(Collections.<Container>emptyList(), Collections.<Container>emptyList()));
+
+        Map<Id, Daemon> placements = place(PlacementPolicy.ROUND_ROBIN, definition("db", null), definition("app", null), definition("web", null));
+
+        assertEquals(Arrays.asList(a, b, a), new ArrayList<>(placements.values()));
+    }
+
+    @Test
+    public void leastLoadedCountsRunningAndPlacedContainers() throws Exception {
+        final List<Container> running = Arrays.asList(container("1", "/x"), container("2", "/y"));
+        snapshots.put(a, snapshot(running, running));
+        snapshots.put(b, snapshot(Collections.<Container>emptyList(), Collections.<Container>emptyList()));
+
+        Map<Id, Daemon> placements = place(PlacementPolicy.LEAST_LOADED, definition("db", null), definition("app", null), definition("web", null));
+
+        assertEquals(Arrays.asList(b, b, a), new ArrayList<>(placements.values()));
+    }
+
+    @Test
+    public void pinnedAndExistingContainersStayPut() throws Exception {
+        snapshots.put(a, snapshot(Collections.<Container>emptyList(), Collections.<Container>emptyList()));
+        snapshots.put(b, snapshot(Collections.singletonList(container("1", "/project_db")), Collections.<Container>emptyList()));
+
+        Map<Id, Daemon> placements = place(PlacementPolicy.ROUND_ROBIN, definition("db", null), definition("app", "b"), definition("web", null));
+
+        assertEquals(Arrays.asList(b, b, a), new ArrayList<>(placements.values()));
+    }
+
+    @Test(expected = OrchestrationException.class)
+    public void pinningToUnknownDaemonFails() throws Exception {
+        snapshots.put(a, snapshot(Collections.<Container>emptyList(), Collections.<Container>emptyList()));
+        snapshots.put(b, snapshot(Collections.<Container>emptyList(), Collections.<Container>emptyList()));
+
+        place(PlacementPolicy.ROUND_ROBIN, definition("db", "c"));
+    }
+
+    @Test
+    public void linkEnvPointsAtPublishedPorts() throws Exception {
+        final Ports ports = new Ports();
+        ports.bind(ExposedPort.tcp(5432), Ports.Binding(49153));
+        ports.bind(ExposedPort.tcp(80), Ports.Binding(49154));
+
+        assertEquals(Arrays.asList(
+                        "DB_PORT=tcp://10.0.0.2:49154",
+                        "DB_PORT_80_TCP=tcp://10.0.0.2:49154",
+                        "DB_PORT_80_TCP_ADDR=10.0.0.2",
+                        "DB_PORT_80_TCP_PORT=49154",
+                        "DB_PORT_80_TCP_PROTO=tcp",
+                        "DB_PORT_5432_TCP=tcp://10.0.0.2:49153",
+                        "DB_PORT_5432_TCP_ADDR=10.0.0.2",
+                        "DB_PORT_5432_TCP_PORT=49153",
+                        "DB_PORT_5432_TCP_PROTO=tcp"),
+                Placement.linkEnv("db", "10.0.0.2", ports));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void builderRejectsDuplicateDaemonNames() throws Exception {
+        DockerOrchestrator.builder()
+                .daemon("a", mock(DockerClient.class), "10.0.0.1")
+                .daemon("a", mock(DockerClient.class), "10.0.0.2");
+    }
+
+    @Test
+    public void builderRejectsADaemonNamedAsTheDefaultClient() throws Exception {
+        try {
+            DockerOrchestrator.builder()
+                    .docker(mock(DockerClient.class))
+                    .daemon(Daemon.DEFAULT_NAME, mock(DockerClient.class), "10.0.0.1")
+                    .build();
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("the client given with docker(DockerClient) is the daemon named default", e.getMessage());
+        }
+    }
+}
@@ -3,7 +3,10 @@ package com.alexecollins.docker.orchestration;
 import com.alexecollins.docker.orchestration.model.Conf;
 import com.alexecollins.docker.orchestration.model.Id;
 import com.alexecollins.docker.orchestration.model.Packaging;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 
@@ -17,16 +20,20 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.hasItems;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 
 @RunWith(Parameterized.class)
 public class RepoTest {
 
     private static final String PROJECT_VERSION = "1.0";
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
     private final Id appId = new Id("app");
     private final Id filterId = new Id("filter");
     private final Repo sut;
@@ -120,4 +127,29 @@ public class RepoTest {
         assertEquals(identifiers.size(), 2);
         assertThat(identifiers, hasItems(appId, filterId));
     }
+
+    @Test
+    public void errorsAreReportedForEveryBrokenConf() throws Exception {
+        try {
+            new Repo("test", "test", new File("src/test/docker-repo-broken"), new Properties());
+            fail();
+        } catch (OrchestrationException e) {
+            assertThat(e.getMessage(), containsString("failed to read 2 configuration file(s)"));
+            assertThat(e.getMessage(), containsString("app" + File.separator + "conf.yml"));
+            assertThat(e.getMessage(), containsString("db" + File.separator + "conf.yml"));
+            assertEquals(2, e.getSuppressed().length);
+        }
+    }
+
+    @Test
+    public void reloadReadsTheChangedConfiguration() throws Exception {
+        File src = folder.newFolder();
+        File conf = new File(src, "app/conf.yml");
+        FileUtils.write(conf, "container:\n  name: one\n");
+        Repo repo = new Repo("test", "test", src, new Properties());
+        FileUtils.write(conf, "container:\n  name: two\n");
+
+        assertEquals("two", repo.reload().containerName(appId));
+        assertEquals(Arrays.asList(new File(src, "docker.yml"), conf), repo.confFiles(appId));
+    }
 }
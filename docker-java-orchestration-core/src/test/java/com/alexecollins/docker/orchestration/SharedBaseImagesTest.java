@@ -0,0 +1,71 @@
+package com.alexecollins.docker.orchestration;
+
+import com.alexecollins.docker.orchestration.model.Id;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SharedBaseImagesTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+    private final Map<Id, File> dockerFolders = new LinkedHashMap<>();
+
+    private File dockerFolder(String id, String dockerfile, String jar) throws IOException {
+        final File dockerFolder = folder.newFolder(id);
+        FileUtils.write(new File(dockerFolder, "Dockerfile"), dockerfile);
+        FileUtils.write(new File(dockerFolder, "shared.jar"), jar);
+        dockerFolders.put(new Id(id), dockerFolder);
+        return dockerFolder;
+    }
+
+    private static String read(File dockerFolder) throws IOException {
+        return FileUtils.readFileToString(new File(dockerFolder, "Dockerfile"));
+    }
+
+    @Test
+    public void commonInstructionsAreMovedToBase() throws Exception {
+        File app = dockerFolder("app", "FROM centos:7\nRUN yum install -y \\\n java\nADD shared.jar /opt/\nCMD [\"app\"]\n", "jar");
+        File web = dockerFolder("web", "FROM centos:7\n# comment\nRUN yum install -y \\\n java\nADD shared.jar /opt/\nEXPOSE 80\nCMD [\"web\"]\n", "jar");
+        File db = dockerFolder("db", "FROM mysql:5\nRUN true\n", "other");
+
+        List<SharedBaseImages.Base> bases = SharedBaseImages.extract(dockerFolders);
+
+        assertEquals(1, bases.size());
+        SharedBaseImages.Base base = bases.get(0);
+        assertEquals(Arrays.asList(new Id("app"), new Id("web")), base.getDependents());
+        assertTrue(base.getTag().startsWith(SharedBaseImages.REPOSITORY + ":"));
+        assertEquals("FROM centos:7\nRUN yum install -y \\\n java\nADD shared.jar /opt/\n", read(base.getDockerFolder()));
+        assertEquals("jar", FileUtils.readFileToString(new File(base.getDockerFolder(), "shared.jar")));
+        assertEquals("FROM " + base.getTag() + "\nCMD [\"app\"]\n", read(app));
+        assertEquals("FROM " + base.getTag() + "\nEXPOSE 80\nCMD [\"web\"]\n", read(web));
+        assertEquals("FROM mysql:5\nRUN true\n", read(db));
+    }
+
+    @Test
+    public void addingDifferentFilesIsNotCommon() throws Exception {
+        dockerFolder("app", "FROM centos:7\nADD shared.jar /opt/\nCMD [\"app\"]\n", "jar");
+        dockerFolder("web", "FROM centos:7\nADD shared.jar /opt/\nCMD [\"web\"]\n", "other jar");
+
+        assertTrue(SharedBaseImages.extract(dockerFolders).isEmpty());
+    }
+
+    @Test
+    public void onBuildIsNotCommon() throws Exception {
+        dockerFolder("app", "FROM centos:7\nONBUILD RUN true\nCMD [\"app\"]\n", "jar");
+        dockerFolder("web", "FROM centos:7\nONBUILD RUN true\nCMD [\"web\"]\n", "jar");
+
+        assertTrue(SharedBaseImages.extract(dockerFolders).isEmpty());
+    }
+}
@@ -0,0 +1,69 @@
+package com.alexecollins.docker.orchestration;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ValidationCacheTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private String key(File src) throws Exception {
+        return ValidationCache.key(new File(src, "Dockerfile"), new File(src, ".dockerignore"), DockerfileValidator.RULES_VERSION);
+    }
+
+    @Test
+    public void successIsCachedAndReadBack() throws Exception {
+        File src = new File("src/test/docker/app");
+        File file = new File(folder.getRoot(), "validation.txt");
+
+        new DockerfileValidator(new ValidationCache(file)).validate(src);
+
+        assertTrue(new ValidationCache(file).contains(key(src)));
+    }
+
+    @Test
+    public void failureIsNotCached() throws Exception {
+        File src = new File("src/test/wrongDocker");
+        ValidationCache cache = new ValidationCache(folder.newFile());
+
+        try {
+            new DockerfileValidator(cache).validate(src);
+            fail();
+        } catch (OrchestrationException e) {
+            assertFalse(cache.contains(key(src)));
+        }
+    }
+
+    @Test
+    public void keyChangesWithDockerfileAndDockerIgnore() throws Exception {
+        File src = folder.newFolder();
+        FileUtils.write(new File(src, "Dockerfile"), "FROM centos:7\n");
+        String before = key(src);
+
+        FileUtils.write(new File(src, ".dockerignore"), "target\n");
+        String withDockerIgnore = key(src);
+        FileUtils.write(new File(src, "Dockerfile"), "FROM centos:6\n");
+
+        assertNotEquals(before, withDockerIgnore);
+        assertNotEquals(withDockerIgnore, key(src));
+        assertNotEquals(key(src), ValidationCache.key(new File(src, "Dockerfile"), new File(src, ".dockerignore"), DockerfileValidator.RULES_VERSION + 1));
+    }
+
+    @Test
+    public void corruptCacheMisses() throws Exception {
+        File file = folder.newFile();
+        FileUtils.write(file, "not a cache\n" + key(new File("src/test/docker/app")));
+
+        assertFalse(new ValidationCache(file).contains(key(new File("src/test/docker/app"))));
+    }
+}
@@ -0,0 +1,86 @@
+package com.alexecollins.docker.orchestration;
+
+import com.alexecollins.docker.orchestration.model.Id;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class WatcherTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+    private final Id app = new Id("app");
+    private final Id db = new Id("db");
+    private Watcher watcher;
+    private File appSrc;
+    private File jar;
+
+    @Before
+    public void setUp() throws Exception {
+        appSrc = folder.newFolder("app");
+        FileUtils.write(new File(appSrc, "conf/app.yml"), "a: b\n");
+        jar = new File(folder.getRoot(), "target/db.jar");
+        FileUtils.write(jar, "jar");
+        watcher = new Watcher();
+        watcher.watch(app, appSrc.toPath());
+        watcher.watch(db, jar.toPath());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        watcher.close();
+    }
+
+    @Test(timeout = 10000)
+    public void changeInSubFolderIsReported() throws Exception {
+        FileUtils.write(new File(appSrc, "conf/app.yml"), "a: c\n");
+
+        assertEquals(Collections.singleton(app), watcher.take(100));
+    }
+
+    @Test(timeout = 10000)
+    public void onlyTheAddedFileOfAFolderIsWatched() throws Exception {
+        FileUtils.write(new File(jar.getParentFile(), "other.jar"), "other");
+        FileUtils.write(jar, "new jar");
+        Set<Path> changedPaths = new HashSet<>();
+
+        assertEquals(Collections.singleton(db), watcher.take(100, changedPaths));
+        assertEquals(Collections.singleton(jar.toPath().toAbsolutePath().normalize()), changedPaths);
+    }
+
+    @Test(timeout = 10000)
+    public void fileThatDoesNotExistYetIsReportedOnceCreated() throws Exception {
+        File appJar = new File(folder.getRoot(), "build/libs/app.jar");
+        watcher.watch(app, appJar.toPath());
+
+        FileUtils.write(appJar, "jar");
+
+        assertEquals(Collections.singleton(app), watcher.take(100));
+    }
+
+    @Test(timeout = 10000)
+    public void deletedAndRecreatedFolderIsWatchedAgain() throws Exception {
+        FileUtils.deleteDirectory(jar.getParentFile());
+
+        assertEquals(Collections.singleton(db), watcher.take(100));
+
+        FileUtils.write(jar, "new jar");
+
+        assertEquals(Collections.singleton(db), watcher.take(100));
+
+        FileUtils.write(jar, "newer jar");
+
+        assertEquals(Collections.singleton(db), watcher.take(100));
+    }
+}
@@ -0,0 +1,198 @@
+package com.alexecollins.docker.orchestration.client;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.NotFoundException;
+import com.github.dockerjava.api.model.Container;
+import com.github.dockerjava.core.DockerClientConfig;
+import com.github.dockerjava.core.DockerClientImpl;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ThinDockerCmdExecFactoryTest {
+
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private final List<String> bodies = new CopyOnWriteArrayList<>();
+    private ServerSocket server;
+    private ThinDockerCmdExecFactory factory;
+    private DockerClient docker;
+
+    private static void respond(OutputStream out, int status, String body, boolean chunked) throws IOException {
+        final StringBuilder response = new StringBuilder("HTTP/1.1 " + status + " X\r\n");
+        if (chunked) {
+            response.append("Transfer-Encoding: chunked\r\n\r\n");
+            for (String part : new String[]{body.substring(0, body.length() / 2), body.substring(body.length() / 2)}) {
+                response.append(Integer.toHexString(part.length())).append("\r\n").append(part).append("\r\n");
+            }
+            response.append("0\r\n\r\n");
+        } else if (status == 204) {
+            response.append("\r\n");
+        } else {
+            response.append("Content-Length: ").append(body.length()).append("\r\n\r\n").append(body);
+        }
+        out.write(response.toString().getBytes("US-ASCII"));
+        out.flush();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        final Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket socket = server.accept();
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        }).start();
+                    }
+                } catch (IOException ignored) {
+                    // closed
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        factory = new ThinDockerCmdExecFactory(1000);
+        docker = DockerClientImpl.getInstance(DockerClientConfig.createDefaultConfigBuilder()
+                .withUri("http://127.0.0.1:" + server.getLocalPort())
+                .build())
+                .withDockerCmdExecFactory(factory);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        docker.close();
+        server.close();
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            final InputStream in = new java.io.BufferedInputStream(s.getInputStream());
+            final OutputStream out = s.getOutputStream();
+            while (true) {
+                final String requestLine = HttpConnection.readLine(in);
+                final Map<String, String> headers = new HashMap<>();
+                String line;
+                while (!(line = HttpConnection.readLine(in)).isEmpty()) {
+                    headers.put(line.substring(0, line.indexOf(':')).toLowerCase(Locale.ENGLISH), line.substring(line.indexOf(':') + 1).trim());
+                }
+                final ByteArrayOutputStream body = new ByteArrayOutputStream();
+                if (headers.containsKey("content-length")) {
+                    final byte[] bytes = new byte[Integer.parseInt(headers.get("content-length"))];
+                    IOUtils.readFully(in, bytes);
+                    body.write(bytes);
+                } else if ("chunked".equals(headers.get("transfer-encoding"))) {
+                    IOUtils.copy(new ChunkedInputStream(in), body);
+                }
+                final String method = requestLine.split(" ")[0];
+                final String target = requestLine.split(" ")[1];
+                requests.add(method + " " + target);
+                bodies.add(body.toString("UTF-8"));
+
+                if (target.contains("/containers/json")) {
+                    respond(out, 200, "[{\"Id\":\"abc\",\"Names\":[\"/app\"],\"Image\":\"img\"}]", false);
+                } else if (target.contains("/containers/create")) {
+                    respond(out, 201, "{\"Id\":\"def\"}", false);
+                } else if (target.contains("/start")) {
+                    respond(out, 204, "", false);
+                } else if (target.contains("/logs")) {
+                    respond(out, 200, "some log output", true);
+                } else if (target.contains("/images/create")) {
+                    respond(out, 200, "{\"status\":\"Downloaded newer image for busybox:1.0\"}", true);
+                } else if (method.equals("DELETE") || target.contains("/tag?")) {
+                    respond(out, 204, "", false);
+                } else if (target.contains("/push")) {
+                    respond(out, 200, "{\"status\":\"Pushed\"}", true);
+                } else if (target.contains("/build")) {
+                    respond(out, 200, "{\"stream\":\"Successfully built 123\"}", true);
+                } else {
+                    respond(out, 404, "no such container", false);
+                }
+            }
+        } catch (IOException ignored) {
+            // client closed the connection
+        }
+    }
+
+    @Test
+    public void connectionsAreReused() throws Exception {
+        List<Container> containers = docker.listContainersCmd().withShowAll(true).exec();
+        docker.listContainersCmd().exec();
+
+        assertEquals("abc", containers.get(0).getId());
+        assertTrue(requests.get(0), requests.get(0).endsWith("/containers/json?all=1&size=0"));
+        assertEquals(1, factory.getClient().getConnectionsOpened());
+    }
+
+    @Test
+    public void createAndStartContainer() throws Exception {
+        String id = docker.createContainerCmd("img").withName("app").exec().getId();
+        docker.startContainerCmd(id).exec();
+
+        assertEquals("def", id);
+        assertTrue(requests.get(0), requests.get(0).endsWith("/containers/create?name=app"));
+        assertTrue(bodies.get(0), bodies.get(0).contains("\"Image\":\"img\""));
+        assertTrue(requests.get(1), requests.get(1).endsWith("/containers/def/start"));
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void notFoundIsMappedToNotFoundException() throws Exception {
+        docker.inspectContainerCmd("/nope").exec();
+    }
+
+    @Test
+    public void chunkedBodiesAreStreamedBothWays() throws Exception {
+        InputStream response = docker.buildImageCmd(new ByteArrayInputStream("tar".getBytes("UTF-8"))).withTag("app").exec();
+
+        assertEquals("{\"stream\":\"Successfully built 123\"}", IOUtils.toString(response));
+        assertEquals("tar", bodies.get(0));
+        assertEquals("some log output", IOUtils.toString(docker.logContainerCmd("abc").withStdOut().exec()));
+        assertEquals(1, factory.getClient().getConnectionsOpened());
+    }
+
+    @Test
+    public void missingImageIsPulled() throws Exception {
+        InputStream response = docker.pullImageCmd("busybox").withTag("1.0").exec();
+
+        assertEquals("{\"status\":\"Downloaded newer image for busybox:1.0\"}", IOUtils.toString(response));
+        assertTrue(requests.get(0), requests.get(0).startsWith("POST "));
+        assertTrue(requests.get(0), requests.get(0).endsWith("/images/create?fromImage=busybox&tag=1.0"));
+    }
+
+    @Test
+    public void namesAreEncodedInPaths() throws Exception {
+        docker.removeContainerCmd("/app").exec();
+        docker.removeImageCmd("registry:5000/app:1.0").exec();
+        docker.tagImageCmd("registry:5000/app:1.0", "app", "2.0").exec();
+        IOUtils.toString(docker.pushImageCmd("registry:5000/app").exec());
+
+        assertTrue(requests.get(0), requests.get(0).contains("/containers/%2Fapp?"));
+        assertTrue(requests.get(1), requests.get(1).contains("/images/registry%3A5000%2Fapp%3A1.0?"));
+        assertTrue(requests.get(2), requests.get(2).contains("/images/registry%3A5000%2Fapp%3A1.0/tag?"));
+        assertTrue(requests.get(3), requests.get(3).contains("/images/registry%3A5000%2Fapp/push"));
+    }
+}
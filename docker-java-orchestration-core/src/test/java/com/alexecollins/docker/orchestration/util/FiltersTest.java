@@ -11,6 +11,8 @@ import java.io.IOException;
 import java.util.Properties;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class FiltersTest {
 
@@ -52,6 +54,15 @@ public class FiltersTest {
         assertEquals("test 1.0.0\r\n", IOUtils.toString(new File(dir, fileWindows).toURI()));
     }
 
+    @Test
+    public void testHasToken() throws Exception {
+        File noToken = new File(dir, "noToken.txt");
+        writeFile(noToken, "$ {not} a token $");
+
+        assertTrue(Filters.hasToken(new File(dir, fileUnix)));
+        assertFalse(Filters.hasToken(noToken));
+    }
+
     @Test
     public void testMaxLength() throws Exception {
         final Properties p = new Properties();
@@ -6,5 +6,13 @@ package com.alexecollins.docker.orchestration.model;
 public enum BuildFlag {
     NO_CACHE,
     REMOVE_INTERMEDIATE_IMAGES,
-    QUIET
+    QUIET,
+    /**
+     * Build the leading instructions that Dockerfiles have in common once, as a shared base image.
+     */
+    SHARED_BASE_IMAGES,
+    /**
+     * Send the build context gzip compressed, unless it is small. Worthwhile when the daemon is remote.
+     */
+    COMPRESS_CONTEXT
 }
@@ -34,6 +34,11 @@ public class Conf {
     private boolean exposeContainerIp = true;
     private List<String> extraHosts = new ArrayList<>();
     private boolean privileged;
+    /**
+     * The name of the daemon to run on, when the orchestrator has more than one. Null to let the placement policy
+     * choose.
+     */
+    private String daemon;
 
     public Conf() {
     }
@@ -2,17 +2,22 @@ package com.alexecollins.docker.orchestration.model;
 
 public class Link {
     private final String value;
+    private final Id id;
+    private final String alias;
 
     public Link(String value) {
         this.value = value;
+        int firstColon = value.indexOf(':');
+        this.id = new Id(firstColon < 0 ? value : value.substring(0, firstColon));
+        this.alias = value.substring(value.lastIndexOf(':') + 1);
     }
 
     public Id getId() {
-        return new Id(value.replaceFirst(":.*", ""));
+        return id;
     }
 
     public String getAlias() {
-        return value.contains(":") ? value.replaceFirst(".*:", "") : value;
+        return alias;
     }
 
     @Override
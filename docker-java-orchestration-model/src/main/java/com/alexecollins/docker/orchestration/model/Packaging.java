@@ -9,4 +9,16 @@ import java.util.List;
 @Data
 public class Packaging {
     private List<Item> add = new ArrayList<>();
+    /**
+     * Globs, relative to the build context, of files to filter as well as those filtered by default.
+     */
+    private List<String> filterIncludes = new ArrayList<>();
+    /**
+     * Globs, relative to the build context, of files never to filter.
+     */
+    private List<String> filterExcludes = new ArrayList<>();
+    /**
+     * Filter any file that looks like text from its first block, rather than only those with a known extension.
+     */
+    private boolean sniff;
 }